@@ -0,0 +1,407 @@
+package avi.copy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the alternative ways the copier could move a file's bytes, along
+ * with {@link Util#format(long)}. Each result is written as one CSV row so
+ * that runs can be compared mechanically.
+ *
+ * <pre>
+ * CopyBenchmark [-dir folder] [-out file.csv] [-sizes n,...] [-chunks n,...]
+ *               [-warmup n] [-iterations n]
+ * </pre>
+ *
+ * Sizes may use a k, M or G suffix. The source files stay in the page cache
+ * between iterations so the numbers reflect the copy path rather than the
+ * device. They are kept in the folder (avi.copy.bench in the temporary
+ * folder by default) as source-size.bin so that later runs can use them
+ * again; delete the folder when done.
+ *
+ * @author Keith
+ */
+public final class CopyBenchmark {
+
+	private interface Strategy {
+
+		void copy(Path source, Path destination, int chunkSize) throws IOException;
+
+	}
+
+	private static final String Header = "benchmark,fileSize,chunkSize,iterations,meanMillis,minMillis,stdevMillis,mbPerSecond";
+
+	private static volatile Object sink;
+
+	private static int await(Future<Integer> future) throws IOException {
+		try {
+			return future.get().intValue();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+
+			throw new IOException(cause);
+		}
+	}
+
+	private static void copyAsync(Path source, Path destination, int chunkSize) throws IOException {
+		try (AsynchronousFileChannel in = AsynchronousFileChannel.open(source, StandardOpenOption.READ);
+				FileChannel out = openDestination(destination)) {
+			ByteBuffer[] buffers = { ByteBuffer.allocateDirect(chunkSize), ByteBuffer.allocateDirect(chunkSize) };
+			long length = in.size();
+			long position = 0;
+			Future<Integer> pending = in.read(buffers[0], 0);
+
+			for (int i = 0; pending != null; i ^= 1) {
+				int byteCount = await(pending);
+
+				if (byteCount <= 0) {
+					break;
+				}
+
+				ByteBuffer current = buffers[i];
+
+				position += byteCount;
+
+				// start the next read before writing the current buffer
+				if (position < length) {
+					ByteBuffer next = buffers[i ^ 1];
+
+					next.clear();
+					pending = in.read(next, position);
+				} else {
+					pending = null;
+				}
+
+				current.flip();
+				while (current.hasRemaining()) {
+					out.write(current);
+				}
+				current.clear();
+			}
+		}
+	}
+
+	private static void copyHandoff(Path source, Path destination, int chunkSize) throws IOException {
+		Main.FileReader in = new Main.FileReader(source, chunkSize);
+
+		try (FileChannel out = openDestination(destination)) {
+			for (;;) {
+				ByteBuffer buffer = in.read();
+
+				if (buffer == null) {
+					break;
+				}
+
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+			}
+		} finally {
+			in.abort();
+		}
+	}
+
+	private static void copyMapped(Path source, Path destination, int chunkSize) throws IOException {
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel out = openDestination(destination)) {
+			long length = in.size();
+
+			for (long position = 0; position < length;) {
+				long size = Math.min(chunkSize, length - position);
+				MappedByteBuffer buffer = in.map(MapMode.READ_ONLY, position, size);
+
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+
+				position += size;
+			}
+		}
+	}
+
+	private static void copyTransfer(Path source, Path destination, int chunkSize) throws IOException {
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel out = openDestination(destination)) {
+			long length = in.size();
+
+			for (long position = 0; position < length;) {
+				position += in.transferTo(position, Math.min(chunkSize, length - position), out);
+			}
+		}
+	}
+
+	private static Path createSource(Path folder, long size) throws IOException {
+		Path file = folder.resolve("source-" + size + ".bin");
+
+		if (Files.exists(file) && Files.size(file) == size) {
+			return file;
+		}
+
+		try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+			Random random = new Random(size);
+
+			for (long remaining = size; remaining > 0;) {
+				random.nextBytes(buffer.array());
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), remaining));
+				remaining -= buffer.remaining();
+
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+			}
+		}
+
+		return file;
+	}
+
+	private static long[] formatSamples() {
+		List<Long> values = new ArrayList<>();
+		long value = 1;
+
+		do {
+			values.add(Long.valueOf(value));
+		} while ((value *= 3) > 0);
+
+		values.add(Long.valueOf(Long.MAX_VALUE));
+		values.add(Long.valueOf(-1));
+
+		long[] samples = new long[values.size()];
+
+		for (int i = 0; i < samples.length; ++i) {
+			samples[i] = values.get(i).longValue();
+		}
+
+		return samples;
+	}
+
+	public static void main(String[] args) throws IOException {
+		new CopyBenchmark().run(args);
+	}
+
+	private static FileChannel openDestination(Path destination) throws IOException {
+		return FileChannel.open(destination, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+	}
+
+	private static long parseSize(String text) {
+		long scale = 1;
+
+		switch (text.charAt(text.length() - 1)) {
+		case 'G':
+		case 'g':
+			scale <<= 10;
+			//$FALL-THROUGH$
+		case 'M':
+		case 'm':
+			scale <<= 10;
+			//$FALL-THROUGH$
+		case 'K':
+		case 'k':
+			scale <<= 10;
+			text = text.substring(0, text.length() - 1);
+			break;
+		default:
+			break;
+		}
+
+		return Long.parseLong(text) * scale;
+	}
+
+	private static long[] parseSizes(String list) {
+		String[] items = list.split(",");
+		long[] sizes = new long[items.length];
+
+		for (int i = 0; i < items.length; ++i) {
+			sizes[i] = parseSize(items[i].trim());
+		}
+
+		return sizes;
+	}
+
+	private long[] chunkSizes;
+
+	private long[] fileSizes;
+
+	private File folder;
+
+	private int iterations;
+
+	private PrintStream out;
+
+	private int warmup;
+
+	private CopyBenchmark() {
+		super();
+		this.chunkSizes = parseSizes("64k,256k,1M,4M");
+		this.fileSizes = parseSizes("1M,16M,256M");
+		this.folder = new File(System.getProperty("java.io.tmpdir"), "avi.copy.bench");
+		this.iterations = 5;
+		this.out = System.out;
+		this.warmup = 2;
+	}
+
+	private void measure(String name, Strategy strategy, Path source, long fileSize, int chunkSize)
+			throws IOException {
+		Path destination = source.resolveSibling("destination.bin");
+		double[] millis = new double[iterations];
+
+		for (int i = -warmup; i < iterations; ++i) {
+			Files.deleteIfExists(destination);
+
+			long start = System.nanoTime();
+
+			strategy.copy(source, destination, chunkSize);
+
+			long elapsed = System.nanoTime() - start;
+
+			if (Files.size(destination) != fileSize) {
+				throw new IOException(name + " produced a file of the wrong size");
+			}
+
+			if (i >= 0) {
+				millis[i] = elapsed / 1e6;
+			}
+		}
+
+		Files.deleteIfExists(destination);
+		report(name, fileSize, chunkSize, millis, fileSize);
+	}
+
+	private void measureFormat() {
+		long[] samples = formatSamples();
+		int rounds = 2000;
+		double[] millis = new double[iterations];
+
+		for (int i = -warmup; i < iterations; ++i) {
+			long start = System.nanoTime();
+
+			for (int round = 0; round < rounds; ++round) {
+				for (long sample : samples) {
+					sink = Util.format(sample);
+				}
+			}
+
+			long elapsed = System.nanoTime() - start;
+
+			if (i >= 0) {
+				// express as the time for a single call
+				millis[i] = elapsed / 1e6 / (rounds * samples.length);
+			}
+		}
+
+		report("Util.format", 0, 0, millis, 0);
+	}
+
+	private void report(String name, long fileSize, int chunkSize, double[] millis, long bytes) {
+		double min = Double.MAX_VALUE;
+		double sum = 0;
+
+		for (double value : millis) {
+			min = Math.min(min, value);
+			sum += value;
+		}
+
+		double mean = sum / millis.length;
+		double squares = 0;
+
+		for (double value : millis) {
+			squares += (value - mean) * (value - mean);
+		}
+
+		double stdev = millis.length > 1 ? Math.sqrt(squares / (millis.length - 1)) : 0;
+		double rate = bytes > 0 ? (bytes / (1024.0 * 1024.0)) / (mean / 1000) : 0;
+
+		out.format("%s,%d,%d,%d,%.6f,%.6f,%.6f,%.2f\n",
+				name, Long.valueOf(fileSize), Integer.valueOf(chunkSize), Integer.valueOf(millis.length),
+				Double.valueOf(mean), Double.valueOf(min), Double.valueOf(stdev), Double.valueOf(rate));
+		out.flush();
+	}
+
+	private void run(String[] args) throws IOException {
+		String output = null;
+
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+
+			String value = args[++i];
+
+			switch (arg) {
+			case "-chunks":
+				chunkSizes = parseSizes(value);
+				break;
+			case "-dir":
+				folder = new File(value);
+				break;
+			case "-iterations":
+				iterations = Integer.parseInt(value);
+				break;
+			case "-out":
+				output = value;
+				break;
+			case "-sizes":
+				fileSizes = parseSizes(value);
+				break;
+			case "-warmup":
+				warmup = Integer.parseInt(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+
+		if (output != null) {
+			out = new PrintStream(output, "UTF-8");
+		}
+
+		try {
+			out.println(Header);
+			measureFormat();
+
+			Files.createDirectories(folder.toPath());
+
+			for (long fileSize : fileSizes) {
+				Path source = createSource(Paths.get(folder.getPath()), fileSize);
+
+				for (long chunk : chunkSizes) {
+					int chunkSize = (int) chunk;
+
+					measure("handoff", CopyBenchmark::copyHandoff, source, fileSize, chunkSize);
+					measure("transferTo", CopyBenchmark::copyTransfer, source, fileSize, chunkSize);
+					measure("mapped", CopyBenchmark::copyMapped, source, fileSize, chunkSize);
+					measure("async", CopyBenchmark::copyAsync, source, fileSize, chunkSize);
+				}
+			}
+		} finally {
+			if (out != System.out) {
+				out.close();
+			}
+		}
+	}
+}
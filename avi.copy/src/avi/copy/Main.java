@@ -214,7 +214,9 @@ public class Main {
 		}
 	}
 
-	private static final class FileReader extends Thread {
+	static final class FileReader extends Thread {
+
+		static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
 
 		private static ByteBuffer[] makeBuffers(int count, int bufferSize) {
 			ByteBuffer[] buffers = new ByteBuffer[count];
@@ -228,6 +230,8 @@ public class Main {
 
 		private ByteBuffer buffer;
 
+		private final int bufferSize;
+
 		private boolean done;
 
 		private final Path source;
@@ -235,7 +239,12 @@ public class Main {
 		private IOException trouble;
 
 		public FileReader(Path source) {
+			this(source, DEFAULT_BUFFER_SIZE);
+		}
+
+		public FileReader(Path source, int bufferSize) {
 			super("read");
+			this.bufferSize = bufferSize;
 			this.source = source;
 
 			setDaemon(true);
@@ -277,7 +286,7 @@ public class Main {
 		@Override
 		public void run() {
 			try (ReadableByteChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
-				ByteBuffer[] buffers = makeBuffers(2, 1024 * 1024);
+				ByteBuffer[] buffers = makeBuffers(2, bufferSize);
 
 				run: for (int i = 0;; i ^= 1) {
 					// wait for peer to consume buffer
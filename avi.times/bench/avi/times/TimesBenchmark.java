@@ -0,0 +1,430 @@
+package avi.times;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates synthetic data files and libraries and measures how avi.times
+ * handles them: parsing, lookups that match exactly, by prefix or not at all,
+ * and stamping a whole tree. Results are written as CSV rows.
+ *
+ * <pre>
+ * TimesBenchmark [-dir folder] [-out file.csv] [-titles n,...] [-files n,...]
+ *                [-lookups n] [-warmup n] [-iterations n]
+ * </pre>
+ *
+ * Counts may use a k or M suffix. Each row gives the number of operations in
+ * one run: titles, lookups or files, except that parsing is counted in bytes.
+ * The folder should be on a memory-backed
+ * file system (it defaults to /dev/shm where that exists) so that the tree
+ * measurements reflect the work done rather than the disk.
+ *
+ * @author Keith
+ */
+public final class TimesBenchmark {
+
+	private interface Body {
+
+		void run() throws IOException;
+
+	}
+
+	private static final String Header = "benchmark,titles,operations,meanMillis,minMillis,stdevMillis,opsPerSecond";
+
+	private static final String[] Syllables = { "ka", "lo", "mi", "ne", "ru", "sa", "ti", "vo", "an", "el", "or",
+			"us", "bri", "dra", "fen", "gol", "hur", "jax", "qua", "wes" };
+
+	private static volatile long sink;
+
+	private static int[] parseCounts(String list) {
+		String[] items = list.split(",");
+		int[] counts = new int[items.length];
+
+		for (int i = 0; i < items.length; ++i) {
+			String item = items[i].trim();
+			int scale = 1;
+
+			switch (item.charAt(item.length() - 1)) {
+			case 'k':
+			case 'K':
+				scale = 1000;
+				break;
+			case 'm':
+			case 'M':
+				scale = 1000 * 1000;
+				break;
+			default:
+				break;
+			}
+
+			if (scale != 1) {
+				item = item.substring(0, item.length() - 1);
+			}
+
+			counts[i] = Integer.parseInt(item) * scale;
+		}
+
+		return counts;
+	}
+
+	public static void main(String[] args) throws IOException {
+		new TimesBenchmark().run(args);
+	}
+
+	private static void removeTree(Path folder) throws IOException {
+		if (!Files.exists(folder)) {
+			return;
+		}
+
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+			for (Path entry : entries) {
+				if (Files.isDirectory(entry)) {
+					removeTree(entry);
+				} else {
+					Files.delete(entry);
+				}
+			}
+		}
+
+		Files.delete(folder);
+	}
+
+	private int[] fileCounts;
+
+	private Path folder;
+
+	private int iterations;
+
+	private int lookups;
+
+	private PrintStream out;
+
+	private int[] titleCounts;
+
+	private String[] titles;
+
+	private int warmup;
+
+	private TimesBenchmark() {
+		super();
+		this.fileCounts = parseCounts("10k,100k,1M");
+		this.folder = Paths.get(Files.isDirectory(Paths.get("/dev/shm")) ? "/dev/shm" : System.getProperty("java.io.tmpdir"), // <br/>
+				"avi.times.bench");
+		this.iterations = 5;
+		this.lookups = 1000 * 1000;
+		this.out = System.out;
+		this.titleCounts = parseCounts("10k,100k,1M");
+		this.titles = null;
+		this.warmup = 2;
+	}
+
+	/**
+	 * Write a data file with the given number of titles; most lines give the
+	 * date first, and every tenth line is in the episode-first form. The
+	 * dates are from 1970 on, where {@link LocalTimes} keeps its tables, so
+	 * that its slow path for earlier dates doesn't skew the measurements.
+	 */
+	private Path createDataFile(int count) throws IOException {
+		Path file = folder.resolve("times-" + count + ".txt");
+		Random random = new Random(count);
+
+		titles = new String[count];
+
+		try (BufferedWriter writer = Files.newBufferedWriter(file, Charset.defaultCharset())) {
+			for (int i = 0; i < count; ++i) {
+				String stamp = String.format("%04d%02d%02d%02d%02d", // <br/>
+						Integer.valueOf(1970 + random.nextInt(55)), Integer.valueOf(1 + random.nextInt(12)),
+						Integer.valueOf(1 + random.nextInt(28)), Integer.valueOf(random.nextInt(24)),
+						Integer.valueOf(random.nextInt(60)));
+
+				if (i % 10 == 9) {
+					titles[i] = Integer.toString(1000000 + i);
+					writer.write(titles[i] + " " + stamp);
+				} else {
+					titles[i] = makeTitle(random, i);
+					writer.write(stamp + " " + titles[i]);
+				}
+
+				writer.newLine();
+			}
+		}
+
+		return file;
+	}
+
+	/**
+	 * Create a library of empty media files, a thousand to a folder, named
+	 * after the titles with the sort of suffix real files have.
+	 */
+	private Path createLibrary(int count) throws IOException {
+		Path library = folder.resolve("library-" + count);
+
+		removeTree(library);
+
+		for (int i = 0; i < count; ++i) {
+			Path shelf = library.resolve(String.format("shelf%04d", Integer.valueOf(i / 1000)));
+
+			if (i % 1000 == 0) {
+				Files.createDirectories(shelf);
+			}
+
+			Files.createFile(shelf.resolve(titles[i % titles.length] + " S01E01 720p.mkv"));
+		}
+
+		// folders changed moments ago are never skipped, so backdate them
+		FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60 * 60 * 1000);
+
+		try (DirectoryStream<Path> shelves = Files.newDirectoryStream(library)) {
+			for (Path shelf : shelves) {
+				Files.setLastModifiedTime(shelf, past);
+			}
+		}
+
+		Files.setLastModifiedTime(library, past);
+
+		return library;
+	}
+
+	private String makeTitle(Random random, int index) {
+		StringBuilder title = new StringBuilder();
+
+		for (int words = 1 + random.nextInt(3); words > 0; --words) {
+			for (int syllables = 1 + random.nextInt(3); syllables > 0; --syllables) {
+				title.append(Syllables[random.nextInt(Syllables.length)]);
+			}
+
+			title.setCharAt(title.length() - 1, Character.toUpperCase(title.charAt(title.length() - 1)));
+			title.append(' ');
+		}
+
+		// keep titles distinct
+		return title.append(Integer.toString(index, 36)).toString();
+	}
+
+	private String[] makeNames(int kind) {
+		Random random = new Random(kind);
+		String[] names = new String[Math.min(lookups, 64 * 1024)];
+
+		for (int i = 0; i < names.length; ++i) {
+			String title = titles[random.nextInt(titles.length)];
+
+			switch (kind) {
+			case 0:
+				names[i] = title;
+				break;
+			case 1:
+				names[i] = title + " S02E05 1080p.mkv";
+				break;
+			default:
+				// no title starts with '~'
+				names[i] = "~" + title + ".avi";
+				break;
+			}
+		}
+
+		return names;
+	}
+
+	private void measure(String name, int titleCount, long operations, Body body) throws IOException {
+		double[] millis = new double[iterations];
+
+		for (int i = -warmup; i < iterations; ++i) {
+			long start = System.nanoTime();
+
+			body.run();
+
+			long elapsed = System.nanoTime() - start;
+
+			if (i >= 0) {
+				millis[i] = elapsed / 1e6;
+			}
+		}
+
+		report(name, titleCount, operations, millis);
+	}
+
+	private void measureLookups(String index, TitleIndex times, int titleCount) throws IOException {
+		String[] kinds = { "exact", "prefix", "miss" };
+
+		for (int kind = 0; kind < kinds.length; ++kind) {
+			String[] names = makeNames(kind);
+
+			measure("get." + index + "." + kinds[kind], titleCount, lookups, () -> {
+				long total = 0;
+
+				for (int i = 0; i < lookups; ++i) {
+					total += times.get(names[i % names.length]);
+				}
+
+				sink = total;
+			});
+		}
+	}
+
+	private void measureTree(TitleTrie trie, int titleCount, int fileCount) throws IOException {
+		Path library = createLibrary(fileCount);
+		Path stateFile = folder.resolve("state.bin");
+		// each stamping pass alternates between two sets of times so there is always work to do
+		TitleTrie shifted = new TitleTrie();
+
+		trie.forEach((title, length, time) -> shifted.put(new String(title, 0, length), time + 60 * 1000));
+
+		TitleTrie[] passes = { trie, shifted };
+		int[] pass = { 0 };
+
+		measure("stamp.update", titleCount, fileCount, () -> {
+			stampTree(passes[pass[0]++ & 1], library, null);
+		});
+
+		measure("stamp.correct", titleCount, fileCount, () -> {
+			stampTree(trie, library, null);
+		});
+
+		Files.deleteIfExists(stateFile);
+		stampTree(trie, library, StampState.load(stateFile));
+
+		measure("stamp.state", titleCount, fileCount, () -> {
+			stampTree(trie, library, StampState.load(stateFile));
+		});
+
+		Files.deleteIfExists(stateFile);
+		removeTree(library);
+	}
+
+	private void report(String name, int titleCount, long operations, double[] millis) {
+		double min = Double.MAX_VALUE;
+		double sum = 0;
+
+		for (double value : millis) {
+			min = Math.min(min, value);
+			sum += value;
+		}
+
+		double mean = sum / millis.length;
+		double squares = 0;
+
+		for (double value : millis) {
+			squares += (value - mean) * (value - mean);
+		}
+
+		double stdev = millis.length > 1 ? Math.sqrt(squares / (millis.length - 1)) : 0;
+
+		out.format("%s,%d,%d,%.3f,%.3f,%.3f,%.0f\n", name, Integer.valueOf(titleCount), Long.valueOf(operations),
+				Double.valueOf(mean), Double.valueOf(min), Double.valueOf(stdev),
+				Double.valueOf(operations / (mean / 1000)));
+		out.flush();
+	}
+
+	private void run(String[] args) throws IOException {
+		String output = null;
+
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + arg);
+			}
+
+			String value = args[++i];
+
+			switch (arg) {
+			case "-dir":
+				folder = Paths.get(value);
+				break;
+			case "-files":
+				fileCounts = parseCounts(value);
+				break;
+			case "-iterations":
+				iterations = Integer.parseInt(value);
+				break;
+			case "-lookups":
+				lookups = parseCounts(value)[0];
+				break;
+			case "-out":
+				output = value;
+				break;
+			case "-titles":
+				titleCounts = parseCounts(value);
+				break;
+			case "-warmup":
+				warmup = Integer.parseInt(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+
+		if (output != null) {
+			out = new PrintStream(output, "UTF-8");
+		}
+
+		try {
+			out.println(Header);
+			Files.createDirectories(folder);
+
+			for (int t = 0; t < titleCounts.length; ++t) {
+				int titleCount = titleCounts[t];
+				Path dataFile = createDataFile(titleCount);
+				long bytes = Files.size(dataFile);
+
+				measure("parse.bytes", titleCount, bytes, () -> {
+					sink = TimeTable.read(dataFile).size();
+				});
+
+				TitleTrie[] trie = { null };
+
+				measure("trie.build", titleCount, titleCount, () -> {
+					trie[0] = new TitleTrie();
+					TimeTable.read(dataFile).addTo(trie[0]);
+				});
+
+				Path catalogFile = folder.resolve("catalog-" + titleCount + ".bin");
+
+				TimeCatalog.write(catalogFile, Arrays.asList(dataFile), trie[0]);
+
+				measure("catalog.open", titleCount, 1, () -> {
+					sink = TimeCatalog.open(catalogFile, Arrays.asList(dataFile)).size();
+				});
+
+				TimeCatalog catalog = TimeCatalog.open(catalogFile, Arrays.asList(dataFile));
+
+				measureLookups("trie", trie[0], titleCount);
+				measureLookups("catalog", catalog, titleCount);
+
+				if (t < fileCounts.length) {
+					measureTree(trie[0], titleCount, fileCounts[t]);
+				}
+
+				Files.delete(catalogFile);
+				Files.delete(dataFile);
+			}
+		} finally {
+			if (out != System.out) {
+				out.close();
+			}
+		}
+	}
+
+	private void stampTree(TitleTrie trie, Path library, StampState state) throws IOException {
+		TimeStamper stamper = new TimeStamper(trie::get, 16);
+
+		try {
+			stamper.stampTree(library, true, state);
+		} finally {
+			stamper.finish();
+		}
+
+		if (state != null) {
+			state.save(folder.resolve("state.bin"));
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package avi.times;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Parses data files by scanning memory-mapped bytes. Two forms of line are
+ * recognized (any other lines are ignored):
+ *
+ * <pre>
+ * yyyyMMddHHmm title
+ * episode yyyyMMddHHmm
+ * </pre>
+ *
+ * Timestamps are decoded arithmetically and converted with
+ * {@link LocalTimes}; the only per-line allocation is the title itself. The
+ * file is assumed to be in the platform encoding, which must be a superset of
+ * ASCII.
+ *
+ * @author Keith
+ */
+final class DataFileParser {
+
+	interface Handler {
+
+		/**
+		 * Accept the time for a title; clamped is true if the year was
+		 * earlier than 1970 and has been replaced.
+		 */
+		void time(String title, long time, boolean clamped);
+
+	}
+
+	private static final int MIN_YEAR = 1970;
+
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static int digits(ByteBuffer buffer, int index, int count) {
+		int value = 0;
+
+		for (int end = index + count; index < end; ++index) {
+			value = value * 10 + (buffer.get(index) - '0');
+		}
+
+		return value;
+	}
+
+	private static boolean isDigit(int ch) {
+		return '0' <= ch && ch <= '9';
+	}
+
+	private static boolean isLineEnd(int ch) {
+		return ch == '\n' || ch == '\r';
+	}
+
+	private static boolean isSpace(int ch) {
+		return ch == ' ' || ch == '\t' || ch == '\f' || ch == 0x0B;
+	}
+
+	static void parse(Path file, Handler handler) throws IOException {
+		new DataFileParser(handler).parse(file);
+	}
+
+	private static int skipDigits(ByteBuffer buffer, int index, int end) {
+		while (index < end && isDigit(buffer.get(index))) {
+			index += 1;
+		}
+
+		return index;
+	}
+
+	private static int skipSpaces(ByteBuffer buffer, int index, int end) {
+		while (index < end && isSpace(buffer.get(index))) {
+			index += 1;
+		}
+
+		return index;
+	}
+
+	private final Charset charset;
+
+	private final Handler handler;
+
+	private final LocalTimes localTimes;
+
+	private byte[] text;
+
+	private DataFileParser(Handler handler) {
+		super();
+		this.charset = Charset.defaultCharset();
+		this.handler = handler;
+		this.localTimes = new LocalTimes();
+		this.text = new byte[256];
+	}
+
+	private void emit(ByteBuffer buffer, int titleStart, int titleEnd, int timeStart) {
+		int length = titleEnd - titleStart;
+
+		if (text.length < length) {
+			text = Arrays.copyOf(text, Math.max(length, text.length * 2));
+		}
+
+		for (int i = 0; i < length; ++i) {
+			text[i] = buffer.get(titleStart + i);
+		}
+
+		long wallMillis = LocalTimes.wallMillis( // <br/>
+				digits(buffer, timeStart, 4), // <br/>
+				digits(buffer, timeStart + 4, 2), // <br/>
+				digits(buffer, timeStart + 6, 2), // <br/>
+				digits(buffer, timeStart + 8, 2), // <br/>
+				digits(buffer, timeStart + 10, 2));
+		boolean clamped = false;
+
+		if (LocalTimes.yearOf(wallMillis) < MIN_YEAR) {
+			// resolve the time in its own year first, as a calendar would
+			wallMillis = localTimes.toWallMillis(localTimes.toEpochMillis(wallMillis));
+
+			if (LocalTimes.yearOf(wallMillis) < MIN_YEAR) {
+				clamped = true;
+				wallMillis = LocalTimes.withYear(wallMillis, MIN_YEAR);
+			}
+		}
+
+		handler.time(new String(text, 0, length, charset), localTimes.toEpochMillis(wallMillis), clamped);
+	}
+
+	private void parse(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			for (long position = 0; position < size;) {
+				long remaining = size - position;
+				int length = (int) Math.min(remaining, WINDOW_SIZE);
+				ByteBuffer window = channel.map(MapMode.READ_ONLY, position, length);
+
+				position += parseLines(window, length, length == remaining);
+			}
+		}
+	}
+
+	private void parseLine(ByteBuffer buffer, int start, int end) {
+		int first = skipSpaces(buffer, start, end);
+		int digitsEnd = skipDigits(buffer, first, end);
+
+		if (digitsEnd - first == 12) {
+			// yyyyMMddHHmm title
+			int title = skipSpaces(buffer, digitsEnd, end);
+
+			if (title > digitsEnd && title < end) {
+				emit(buffer, title, end, first);
+				return;
+			}
+		}
+
+		if (digitsEnd > first) {
+			// episode yyyyMMddHHmm
+			int time = skipSpaces(buffer, digitsEnd, end);
+
+			if (time > digitsEnd && skipDigits(buffer, time, end) - time == 12
+					&& skipSpaces(buffer, time + 12, end) == end) {
+				emit(buffer, first, digitsEnd, time);
+			}
+		}
+	}
+
+	/**
+	 * Parse the complete lines in the window and answer the number of bytes
+	 * consumed. The last line is only parsed if it ends the file or if the
+	 * window contains nothing else.
+	 */
+	private int parseLines(ByteBuffer window, int limit, boolean last) {
+		int start = 0;
+
+		for (int index = 0; index < limit; ++index) {
+			if (isLineEnd(window.get(index))) {
+				parseLine(window, start, index);
+				start = index + 1;
+			}
+		}
+
+		if (last || start == 0) {
+			parseLine(window, start, limit);
+			return limit;
+		}
+
+		return start;
+	}
+}
@@ -0,0 +1,268 @@
+package avi.times;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An inverted index from character trigrams to titles, for names that don't
+ * start with any title exactly. Titles and names are compared after folding
+ * case and reducing punctuation to single spaces; a title is scored by the
+ * Dice coefficient of its trigrams and the name's: twice the number they have
+ * in common over the sum of their numbers. Only the postings of the name's
+ * trigrams are examined, so a search doesn't visit every title; trigrams
+ * shared by very many titles (such as " th") say little about any of them,
+ * and are left out of both the postings and the scores.
+ *
+ * @author Keith
+ */
+final class FuzzyIndex {
+
+	static final class Match {
+
+		final double score;
+
+		final long time;
+
+		final String title;
+
+		Match(String title, long time, double score) {
+			super();
+			this.score = score;
+			this.time = time;
+			this.title = title;
+		}
+	}
+
+	/** the postings of a trigram shared by too many titles */
+	private static final int[] COMMON = new int[0];
+
+	static final double DEFAULT_THRESHOLD = 0.8;
+
+	/** the most titles a trigram may be in and still be indexed */
+	private static final int MAX_POSTINGS = 1000;
+
+	/** titles with fewer trigrams than this are too short to guess at */
+	private static final int MIN_GRAMS = 4;
+
+	static FuzzyIndex build(TitleIndex index, double threshold) {
+		List<String> titles = new ArrayList<>();
+		List<Long> times = new ArrayList<>();
+
+		index.forEach((title, length, time) -> {
+			titles.add(new String(title, 0, length));
+			times.add(Long.valueOf(time));
+		});
+
+		long[] timeArray = new long[times.size()];
+
+		for (int i = 0; i < timeArray.length; ++i) {
+			timeArray[i] = times.get(i).longValue();
+		}
+
+		return new FuzzyIndex(titles.toArray(new String[titles.size()]), timeArray, threshold);
+	}
+
+	/**
+	 * Answer the distinct trigrams of the normalized text, each packed into
+	 * the low 48 bits of a long, in ascending order.
+	 */
+	private static long[] grams(CharSequence text) {
+		String normal = normalize(text);
+		int count = Math.max(0, normal.length() - 2);
+		long[] grams = new long[count];
+
+		for (int i = 0; i < count; ++i) {
+			grams[i] = ((long) normal.charAt(i) << 32) // <br/>
+					| ((long) normal.charAt(i + 1) << 16) // <br/>
+					| normal.charAt(i + 2);
+		}
+
+		Arrays.sort(grams);
+
+		int distinct = 0;
+
+		for (int i = 0; i < count; ++i) {
+			if (distinct == 0 || grams[distinct - 1] != grams[i]) {
+				grams[distinct++] = grams[i];
+			}
+		}
+
+		return Arrays.copyOf(grams, distinct);
+	}
+
+	/**
+	 * Answer the folded letters and digits of the text, with apostrophes
+	 * removed, each run of other characters replaced by a single space, and a
+	 * space at each end.
+	 */
+	private static String normalize(CharSequence text) {
+		StringBuilder normal = new StringBuilder(text.length() + 2);
+
+		normal.append(' ');
+
+		for (int i = 0, n = text.length(); i < n; ++i) {
+			char ch = text.charAt(i);
+
+			if (Character.isLetterOrDigit(ch)) {
+				normal.append(TitleTrie.fold(ch));
+			} else if (ch == '\'' || ch == '\u2019') {
+				// apostrophes are often dropped from file names
+				continue;
+			} else if (normal.charAt(normal.length() - 1) != ' ') {
+				normal.append(' ');
+			}
+		}
+
+		if (normal.charAt(normal.length() - 1) != ' ') {
+			normal.append(' ');
+		}
+
+		return normal.toString();
+	}
+
+	private static String stripExtension(String name) {
+		int dot = name.lastIndexOf('.');
+
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	private final int[] gramCounts;
+
+	private final Map<Long, int[]> postings;
+
+	private final double threshold;
+
+	private final long[] times;
+
+	private final String[] titles;
+
+	private FuzzyIndex(String[] titles, long[] times, double threshold) {
+		super();
+		this.gramCounts = new int[titles.length];
+		this.postings = new HashMap<>();
+		this.threshold = threshold;
+		this.times = times;
+		this.titles = titles;
+
+		long[][] titleGrams = new long[titles.length][];
+		Map<Long, int[]> sizes = new HashMap<>();
+
+		for (int i = 0; i < titles.length; ++i) {
+			titleGrams[i] = grams(titles[i]);
+
+			for (long gram : titleGrams[i]) {
+				sizes.computeIfAbsent(Long.valueOf(gram), key -> new int[1])[0] += 1;
+			}
+		}
+
+		for (Map.Entry<Long, int[]> entry : sizes.entrySet()) {
+			if (entry.getValue()[0] > MAX_POSTINGS) {
+				postings.put(entry.getKey(), COMMON);
+			}
+		}
+
+		sizes.clear();
+
+		for (int i = 0; i < titles.length; ++i) {
+			long[] grams = titleGrams[i];
+			int kept = 0;
+
+			for (long gram : grams) {
+				if (postings.get(Long.valueOf(gram)) != COMMON) {
+					grams[kept++] = gram;
+				}
+			}
+
+			grams = kept < MIN_GRAMS ? new long[0] : Arrays.copyOf(grams, kept);
+			titleGrams[i] = grams;
+			gramCounts[i] = grams.length;
+
+			for (long gram : grams) {
+				sizes.computeIfAbsent(Long.valueOf(gram), key -> new int[1])[0] += 1;
+			}
+		}
+
+		for (Map.Entry<Long, int[]> entry : sizes.entrySet()) {
+			postings.put(entry.getKey(), new int[entry.getValue()[0]]);
+			entry.getValue()[0] = 0;
+		}
+
+		// titles are added in ascending order, so each posting list is sorted
+		for (int i = 0; i < titles.length; ++i) {
+			for (long gram : titleGrams[i]) {
+				Long key = Long.valueOf(gram);
+
+				postings.get(key)[sizes.get(key)[0]++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Answer the best-scoring title for a file name, or null if no title
+	 * reaches the threshold. Ties go to the title with more trigrams.
+	 */
+	Match find(String name) {
+		long[] grams = grams(stripExtension(name));
+		List<int[]> lists = new ArrayList<>(grams.length);
+		int nameGrams = 0;
+		int total = 0;
+
+		for (long gram : grams) {
+			int[] list = postings.get(Long.valueOf(gram));
+
+			if (list == COMMON) {
+				continue;
+			}
+
+			nameGrams += 1;
+
+			if (list != null) {
+				lists.add(list);
+				total += list.length;
+			}
+		}
+
+		// each title appears once for each trigram it shares with the name
+		int[] candidates = new int[total];
+
+		total = 0;
+
+		for (int[] list : lists) {
+			System.arraycopy(list, 0, candidates, total, list.length);
+			total += list.length;
+		}
+
+		Arrays.sort(candidates);
+
+		int best = -1;
+		double bestScore = 0;
+
+		for (int start = 0, end; start < total; start = end) {
+			int title = candidates[start];
+
+			for (end = start + 1; end < total && candidates[end] == title;) {
+				++end;
+			}
+
+			double score = 2.0 * (end - start) / (gramCounts[title] + nameGrams);
+
+			if (score > bestScore || (score == bestScore && best >= 0 && gramCounts[title] > gramCounts[best])) {
+				best = title;
+				bestScore = score;
+			}
+		}
+
+		if (best < 0 || bestScore < threshold) {
+			return null;
+		}
+
+		return new Match(titles[best], times[best], bestScore);
+	}
+
+	int size() {
+		return titles.length;
+	}
+}
@@ -0,0 +1,183 @@
+package avi.times;
+
+import java.time.Instant;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Converts local (wall clock) times to milliseconds since the epoch without
+ * allocating. Wall times are represented as the number of milliseconds since
+ * 1970-01-01T00:00 local time; the zone offset for each local day comes from
+ * a table that is filled in lazily, a block of days at a time. Days close to
+ * a zone transition are resolved by {@link Calendar} so the results match
+ * those of a lenient {@link java.text.SimpleDateFormat}. All dates are in the
+ * (proleptic) Gregorian calendar, even before 1582.
+ *
+ * @author Keith
+ */
+final class LocalTimes {
+
+	private static final int BLOCK_SHIFT = 9;
+
+	private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+	/** the first day for which no table is kept (2200-01-01) */
+	private static final long LAST_DAY = daysFromCivil(2200, 1, 1);
+
+	private static final long MAX_OFFSET = 18 * 60 * 60 * 1000L;
+
+	static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+	private static final int NEAR_TRANSITION = Integer.MIN_VALUE;
+
+	/**
+	 * Answer the year, month (1-12) and day of the given epoch day, packed as
+	 * (year << 9) | (month << 5) | day.
+	 */
+	private static int civil(long epochDay) {
+		long z = epochDay + 719468;
+		long era = Math.floorDiv(z, 146097);
+		int dayOfEra = (int) (z - era * 146097);
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int mp = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		return ((int) year << 9) | (month << 5) | day;
+	}
+
+	private static long daysFromCivil(int year, int month, int day) {
+		int y = month <= 2 ? year - 1 : year;
+		int era = Math.floorDiv(y, 400);
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+		return era * 146097L + dayOfEra - 719468;
+	}
+
+	/**
+	 * Answer the wall time for the given fields; like a lenient calendar,
+	 * fields that are out of range carry into the next larger field.
+	 */
+	static long wallMillis(int year, int month, int day, int hour, int minute) {
+		int months = month - 1;
+		long epochDay = daysFromCivil(year + Math.floorDiv(months, 12), Math.floorMod(months, 12) + 1, 1);
+
+		return (epochDay + day - 1) * MILLIS_PER_DAY + (hour * 60L + minute) * 60 * 1000;
+	}
+
+	/**
+	 * Answer the given wall time moved to another year, keeping the month,
+	 * day and time of day (February 29 becomes March 1 in common years).
+	 */
+	static long withYear(long wallMillis, int year) {
+		long epochDay = Math.floorDiv(wallMillis, MILLIS_PER_DAY);
+		int fields = civil(epochDay);
+		long newDay = daysFromCivil(year, (fields >> 5) & 15, 1) + (fields & 31) - 1;
+
+		return wallMillis + (newDay - epochDay) * MILLIS_PER_DAY;
+	}
+
+	static int yearOf(long wallMillis) {
+		return civil(Math.floorDiv(wallMillis, MILLIS_PER_DAY)) >> 9;
+	}
+
+	/** zone offsets indexed by block, then by day within the block */
+	private final int[][] offsets;
+
+	private final ZoneRules rules;
+
+	private final TimeZone zone;
+
+	LocalTimes() {
+		this(TimeZone.getDefault());
+	}
+
+	LocalTimes(TimeZone zone) {
+		super();
+		this.offsets = new int[(int) (LAST_DAY >> BLOCK_SHIFT) + 1][];
+		this.rules = zone.toZoneId().getRules();
+		this.zone = zone;
+	}
+
+	private int[] computeBlock(int index) {
+		int[] block = new int[BLOCK_SIZE];
+		long firstDay = (long) index << BLOCK_SHIFT;
+
+		for (int i = 0; i < BLOCK_SIZE; ++i) {
+			Instant midnight = Instant.ofEpochMilli((firstDay + i) * MILLIS_PER_DAY);
+
+			block[i] = rules.getOffset(midnight).getTotalSeconds() * 1000;
+		}
+
+		// a day is ambiguous if a transition might fall within it in any zone offset
+		Instant start = Instant.ofEpochMilli(firstDay * MILLIS_PER_DAY - MAX_OFFSET - MILLIS_PER_DAY);
+		long end = (firstDay + BLOCK_SIZE) * MILLIS_PER_DAY + MAX_OFFSET;
+
+		for (ZoneOffsetTransition transition = rules.nextTransition(start); // <br/>
+				transition != null && transition.toEpochSecond() * 1000 < end; // <br/>
+				transition = rules.nextTransition(transition.getInstant())) {
+			long instant = transition.toEpochSecond() * 1000;
+			long first = Math.floorDiv(instant - MAX_OFFSET, MILLIS_PER_DAY) - 1;
+			long last = Math.floorDiv(instant + MAX_OFFSET, MILLIS_PER_DAY);
+
+			for (long day = Math.max(first, firstDay); day <= last && day < firstDay + BLOCK_SIZE; ++day) {
+				block[(int) (day - firstDay)] = NEAR_TRANSITION;
+			}
+		}
+
+		return block;
+	}
+
+	private long toEpochMillis(int fields, long millisOfDay) {
+		GregorianCalendar calendar = new GregorianCalendar(zone);
+		int minutes = (int) (millisOfDay / (60 * 1000));
+
+		// the fields come from civil(), which doesn't switch to the Julian calendar
+		calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+		calendar.clear();
+		calendar.set(fields >> 9, ((fields >> 5) & 15) - 1, fields & 31, minutes / 60, minutes % 60);
+		calendar.set(Calendar.MILLISECOND, (int) (millisOfDay % (60 * 1000)));
+
+		return calendar.getTimeInMillis();
+	}
+
+	/**
+	 * Answer the instant, in milliseconds since the epoch, corresponding to
+	 * the given wall time in this zone.
+	 */
+	long toEpochMillis(long wallMillis) {
+		long epochDay = Math.floorDiv(wallMillis, MILLIS_PER_DAY);
+
+		if (0 <= epochDay && epochDay < LAST_DAY) {
+			int index = (int) (epochDay >> BLOCK_SHIFT);
+			int[] block = offsets[index];
+
+			if (block == null) {
+				offsets[index] = block = computeBlock(index);
+			}
+
+			int offset = block[(int) epochDay & (BLOCK_SIZE - 1)];
+
+			if (offset != NEAR_TRANSITION) {
+				return wallMillis - offset;
+			}
+		}
+
+		return toEpochMillis(civil(epochDay), wallMillis - epochDay * MILLIS_PER_DAY);
+	}
+
+	/**
+	 * Answer the wall time in this zone at the given instant.
+	 */
+	long toWallMillis(long epochMillis) {
+		return epochMillis + zone.getOffset(epochMillis);
+	}
+}
@@ -1,142 +1,268 @@
 package avi.times;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Keith
  */
 public final class Main {
 
-	private static final Pattern DateAndTitle = Pattern.compile("^\\s*(\\d{12})\\s+(\\S.*)$");
-
-	private static final Pattern EpisodeAndDate = Pattern.compile("^\\s*(\\d+)\\s+(\\d{12})\\s*$");
-
 	public static void main(String[] args) {
 		if (args.length == 0) {
-			System.out.println("Usage: AVITimes.pl [-dateFirst] {data-file} ...");
+			System.out.println("Usage: AVITimes.pl [-dateFirst] [-catalog file] [-fuzzy] [-recursive] [-state file] [-threads n] [-watch] {data-file} ...");
 			return;
 		}
 
 		new Main().run(args);
 	}
 
-	private static boolean startsWithIgnoreCase(String string, String prefix) {
-		return string.regionMatches(true, 0, prefix, 0, prefix.length());
+	private static <T> T join(Future<T> future) throws IOException {
+		for (;;) {
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+
+				throw new IOException(cause);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		}
 	}
 
-	private final SortedMap<String, Long> times;
+	private Path catalog;
+
+	private final List<Path> dataFiles;
+
+	private boolean fuzzy;
+
+	private FuzzyIndex fuzzyIndex;
+
+	private final Map<String, Long> guesses;
+
+	private boolean recursive;
+
+	private Path stateFile;
+
+	private int threads;
+
+	private volatile TitleIndex times;
+
+	private boolean watch;
 
 	private Main() {
 		super();
-		this.times = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		this.catalog = null;
+		this.dataFiles = new ArrayList<>();
+		this.fuzzy = false;
+		this.fuzzyIndex = null;
+		this.guesses = new ConcurrentHashMap<>();
+		this.recursive = false;
+		this.stateFile = null;
+		this.threads = 16;
+		this.times = null;
+		this.watch = false;
 	}
 
-	private Long getTime(String title) {
-		Long time = null;
+	private synchronized FuzzyIndex getFuzzyIndex() {
+		if (fuzzyIndex == null) {
+			fuzzyIndex = FuzzyIndex.build(times, FuzzyIndex.DEFAULT_THRESHOLD);
+		}
 
-		if (title != null && (time = times.get(title)) == null) {
-			// no exact match, check if a prefix of the title is in the map
-			SortedMap<String, Long> headMap = times.headMap(title);
-			String head;
+		return fuzzyIndex;
+	}
 
-			if (!headMap.isEmpty() && startsWithIgnoreCase(title, head = headMap.lastKey())) {
-				time = times.get(head);
-			}
+	private long getTime(String title) {
+		// an exact match is simply the longest possible prefix
+		long time = times.get(title);
+
+		if (time == TitleIndex.NO_TIME && fuzzy) {
+			time = guessTime(title);
 		}
 
 		return time;
 	}
 
-	private void readTimes(String dataFile) throws IOException {
-		DateFormat dateFormat = new SimpleDateFormat("yyyyMMddHHmm");
-
-		try (BufferedReader data = new BufferedReader(new FileReader(dataFile))) {
-			String line;
-
-			while ((line = data.readLine()) != null) {
-				Matcher matcher;
-				String dateText;
-				String title;
-
-				if ((matcher = DateAndTitle.matcher(line)).matches()) {
-					dateText = matcher.group(1);
-					title = matcher.group(2);
-				} else if ((matcher = EpisodeAndDate.matcher(line)).matches()) {
-					dateText = matcher.group(2);
-					title = matcher.group(1);
-				} else {
-					continue;
-				}
+	private long guessTime(String name) {
+		Long guess = guesses.get(name);
 
-				try {
-					Date date = dateFormat.parse(dateText);
-					Calendar time = new Calendar.Builder().setInstant(date).build();
+		if (guess == null) {
+			FuzzyIndex.Match match = getFuzzyIndex().find(name);
+			long time = TitleIndex.NO_TIME;
 
-					if (time.get(Calendar.YEAR) < 1970) {
-						System.out.println("Clamping timestamp to 1970 for " + title);
-						time.set(Calendar.YEAR, 1970);
-					}
+			if (match != null) {
+				time = match.time;
+			}
+
+			// report each guess only once, however often it is needed
+			if ((guess = guesses.putIfAbsent(name, Long.valueOf(time))) == null) {
+				guess = Long.valueOf(time);
 
-					times.put(title, Long.valueOf(time.getTimeInMillis()));
-				} catch (ParseException e) {
-					// cannot happen because the pattern matched
+				if (match != null) {
+					System.out.format("Warning: guessing '%s' (%.0f%% match) for '%s'\n", // <br/>
+							match.title, Double.valueOf(match.score * 100), name);
 				}
 			}
 		}
+
+		return guess.longValue();
 	}
 
-	private void run(String[] args) {
-		for (String arg : args) {
-			try {
-				readTimes(arg);
-			} catch (IOException e) {
-				e.printStackTrace();
-				return;
+	private void loadTimes() throws IOException {
+		TitleIndex index;
+
+		if (catalog == null) {
+			index = readTimes(dataFiles);
+		} else if ((index = TimeCatalog.open(catalog, dataFiles)) == null) {
+			TimeCatalog.write(catalog, dataFiles, readTimes(dataFiles));
+
+			if ((index = TimeCatalog.open(catalog, dataFiles)) == null) {
+				throw new IOException("Cannot open catalog " + catalog);
 			}
 		}
 
-		updateFileTimes();
+		setTimes(index);
 	}
 
-	private void updateFileTimes() {
-		String nameRegex = "^.+\\.(avi|mkv|mov|mp4|mpg)$";
-		Pattern namePattern = Pattern.compile(nameRegex);
+	private TitleTrie readTimes(List<Path> dataFiles) throws IOException {
+		int threads = Math.max(1, Math.min(dataFiles.size(), Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
 
-		for (File file : new File(".").listFiles()) {
-			String name = file.getName();
-			Matcher matcher = namePattern.matcher(name);
+		try {
+			List<Future<TimeTable>> tables = new ArrayList<>(dataFiles.size());
+			TitleTrie trie = new TitleTrie();
 
-			if (!matcher.matches()) {
-				continue;
+			for (Path dataFile : dataFiles) {
+				tables.add(executor.submit(() -> TimeTable.read(dataFile)));
 			}
 
-			Long time = getTime(name);
+			// merge in argument order so later files take precedence
+			for (Future<TimeTable> future : tables) {
+				TimeTable table = join(future);
+
+				for (String title : table.getClampedTitles()) {
+					System.out.println("Clamping timestamp to 1970 for " + title);
+				}
 
-			if (time == null) {
-				System.out.format("Warning: no time specified for '%s'\n", name);
-				continue;
+				table.addTo(trie);
 			}
 
-			long timeInMillis = time.longValue();
-			long modified = file.lastModified();
+			return trie;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void reloadTimes() {
+		System.out.println("Reloading data files");
 
-			if (modified == timeInMillis || file.setLastModified(timeInMillis)) {
-				continue;
+		try {
+			// the catalog stays mapped while it is in use, so it isn't
+			// rewritten (which Windows would refuse); it is compiled again on
+			// the next run, as the data files are now newer
+			setTimes(readTimes(dataFiles));
+		} catch (IOException | RuntimeException e) {
+			System.out.format("Warning: cannot reload data files; keeping the times already loaded: %s\n", e);
+		}
+	}
+
+	private void run(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+
+			if (arg.equals("-catalog") && i + 1 < args.length) {
+				catalog = Paths.get(args[++i]);
+			} else if (arg.equals("-fuzzy")) {
+				fuzzy = true;
+			} else if (arg.equals("-recursive")) {
+				recursive = true;
+			} else if (arg.equals("-state") && i + 1 < args.length) {
+				stateFile = Paths.get(args[++i]);
+			} else if (arg.equals("-threads") && i + 1 < args.length) {
+				threads = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (arg.equals("-watch")) {
+				watch = true;
+			} else {
+				dataFiles.add(Paths.get(arg));
 			}
+		}
+
+		try {
+			loadTimes();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		updateFileTimes();
+
+		if (watch) {
+			watchFiles();
+		}
+	}
+
+	private void setTimes(TitleIndex index) {
+		synchronized (this) {
+			fuzzyIndex = null;
+			times = index;
+		}
+
+		guesses.clear();
+	}
+
+	private void updateFileTimes() {
+		StampState state = stateFile != null ? StampState.load(stateFile) : null;
+		TimeStamper stamper = new TimeStamper(this::getTime, threads);
+
+		try {
+			stamper.stampTree(Paths.get("."), recursive, state);
+		} catch (IOException e) {
+			e.printStackTrace();
+			state = null;
+		} finally {
+			stamper.finish();
+		}
+
+		stamper.printSummary();
+
+		if (state != null) {
+			try {
+				state.save(stateFile);
+			} catch (IOException e) {
+				System.out.format("Warning: cannot save state file '%s': %s\n", stateFile, e.getMessage());
+			}
+		}
+	}
+
+	private void watchFiles() {
+		// files are stamped one at a time as they change, so there's no pool
+		TimeStamper stamper = new TimeStamper(this::getTime, 0);
 
-			System.out.format("Warning: failed to update time for '%s'\n", name);
+		try {
+			new TimeWatcher(Paths.get("."), recursive, dataFiles, stamper, // <br/>
+					this::reloadTimes, this::updateFileTimes).run();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			stamper.finish();
 		}
 	}
 }
@@ -0,0 +1,195 @@
+package avi.times;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Remembers, for each folder of the library, its modification time, its
+ * subfolders and the times given to its media files on the last run. A
+ * folder whose modification time is unchanged has the same entries, so if
+ * the data files still give the same times to its media files, there is no
+ * need to look at any of them again.
+ *
+ * @author Keith
+ */
+final class StampState {
+
+	static final class Folder {
+
+		private volatile boolean dirty;
+
+		final String[] folders;
+
+		final long modified;
+
+		final String[] names;
+
+		final long[] times;
+
+		Folder(long modified, String[] folders, String[] names, long[] times) {
+			super();
+			this.dirty = false;
+			this.folders = folders;
+			this.modified = modified;
+			this.names = names;
+			this.times = times;
+		}
+
+		/**
+		 * Answer whether the folder is known to have the given modification
+		 * time and the same times for all its media files.
+		 */
+		boolean isCurrent(long folderModified, ToLongFunction<String> lookup) {
+			if (dirty || modified != folderModified) {
+				return false;
+			}
+
+			for (int i = 0; i < names.length; ++i) {
+				if (lookup.applyAsLong(names[i]) != times[i]) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Note that something in this folder was not brought up-to-date, so
+		 * it must be visited next time.
+		 */
+		void markDirty() {
+			dirty = true;
+		}
+	}
+
+	private static final int MAGIC = 0x41565453; // "AVTS"
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Load the state saved in the given file; if the file is missing or
+	 * unreadable, every folder is treated as changed.
+	 */
+	static StampState load(Path file) {
+		StampState state = new StampState();
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return state;
+			}
+
+			for (int count = in.readInt(); count > 0; --count) {
+				String key = in.readUTF();
+				long modified = in.readLong();
+				String[] folders = new String[in.readInt()];
+
+				for (int i = 0; i < folders.length; ++i) {
+					folders[i] = in.readUTF();
+				}
+
+				String[] names = new String[in.readInt()];
+				long[] times = new long[names.length];
+
+				for (int i = 0; i < names.length; ++i) {
+					names[i] = in.readUTF();
+					times[i] = in.readLong();
+				}
+
+				state.previous.put(key, new Folder(modified, folders, names, times));
+			}
+		} catch (NoSuchFileException e) {
+			// nothing known yet
+		} catch (EOFException e) {
+			state.previous.clear();
+		} catch (IOException e) {
+			System.out.format("Warning: cannot read state file '%s': %s\n", file, e.getMessage());
+			state.previous.clear();
+		}
+
+		return state;
+	}
+
+	private final Map<String, Folder> current;
+
+	private final Map<String, Folder> previous;
+
+	private StampState() {
+		super();
+		this.current = new ConcurrentHashMap<>();
+		this.previous = new HashMap<>();
+	}
+
+	/**
+	 * Answer what was recorded for a folder on the last run, or null.
+	 */
+	Folder get(String key) {
+		return previous.get(key);
+	}
+
+	/**
+	 * Record a folder for this run.
+	 */
+	void put(String key, Folder folder) {
+		current.put(key, folder);
+	}
+
+	/**
+	 * Save the folders recorded for this run, except those marked dirty.
+	 */
+	void save(Path file) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(parent, "state", ".tmp");
+
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+				Map<String, Folder> clean = new HashMap<>();
+
+				for (Map.Entry<String, Folder> entry : current.entrySet()) {
+					if (!entry.getValue().dirty) {
+						clean.put(entry.getKey(), entry.getValue());
+					}
+				}
+
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(clean.size());
+
+				for (Map.Entry<String, Folder> entry : clean.entrySet()) {
+					Folder folder = entry.getValue();
+
+					out.writeUTF(entry.getKey());
+					out.writeLong(folder.modified);
+					out.writeInt(folder.folders.length);
+
+					for (String name : folder.folders) {
+						out.writeUTF(name);
+					}
+
+					out.writeInt(folder.names.length);
+
+					for (int i = 0; i < folder.names.length; ++i) {
+						out.writeUTF(folder.names[i]);
+						out.writeLong(folder.times[i]);
+					}
+				}
+			}
+
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+}
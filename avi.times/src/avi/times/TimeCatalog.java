@@ -0,0 +1,335 @@
+package avi.times;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compiled form of the data files: a sorted table of case-folded titles
+ * with a parallel column of times, memory-mapped and searched in place.
+ * Opening a catalog only reads its header, so startup doesn't depend on the
+ * number of titles; the rest is mapped only once the header has been found
+ * to match the sources.
+ *
+ * <pre>
+ * int     magic, version, count, charCount, sourceCount
+ * sources sourceCount * (int length, char[length] path)
+ * int     offsets[count + 1]  (start of each title in titles)
+ * long    times[count]
+ * char    titles[charCount]
+ * </pre>
+ *
+ * @author Keith
+ */
+final class TimeCatalog implements TitleIndex {
+
+	private static final int MAGIC = 0x41564954; // "AVIT"
+
+	private static final int VERSION = 1;
+
+	private static String[] describe(List<Path> sources) {
+		String[] names = new String[sources.size()];
+
+		for (int i = 0; i < names.length; ++i) {
+			names[i] = sources.get(i).toAbsolutePath().normalize().toString();
+		}
+
+		return names;
+	}
+
+	/**
+	 * Answer whether the catalog must be rebuilt: that is, if it is missing
+	 * or if any source is newer than it.
+	 */
+	private static boolean isStale(Path catalog, List<Path> sources) throws IOException {
+		long compiled;
+
+		try {
+			compiled = Files.getLastModifiedTime(catalog).toMillis();
+		} catch (NoSuchFileException e) {
+			return true;
+		}
+
+		for (Path source : sources) {
+			if (Files.getLastModifiedTime(source).toMillis() > compiled) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Open a catalog compiled from the given sources, or answer null if the
+	 * catalog is missing, out of date or was compiled from other sources.
+	 */
+	static TimeCatalog open(Path catalog, List<Path> sources) throws IOException {
+		if (isStale(catalog, sources)) {
+			return null;
+		}
+
+		// check the header with plain reads, so that a catalog that won't do
+		// is never mapped (and so may be rewritten at once, even on Windows)
+		try (FileChannel channel = FileChannel.open(catalog, StandardOpenOption.READ)) {
+			ByteBuffer header = read(channel, 0, 20);
+
+			if (header == null || header.getInt() != MAGIC || header.getInt() != VERSION) {
+				return null;
+			}
+
+			int count = header.getInt();
+			int charCount = header.getInt();
+			String[] expected = describe(sources);
+
+			if (header.getInt() != expected.length) {
+				return null;
+			}
+
+			long position = header.capacity();
+
+			for (String name : expected) {
+				ByteBuffer source = read(channel, position, 4 + name.length() * 2);
+
+				if (source == null || source.getInt() != name.length()) {
+					return null;
+				}
+
+				for (int i = 0; i < name.length(); ++i) {
+					if (source.getChar() != name.charAt(i)) {
+						return null;
+					}
+				}
+
+				position += source.capacity();
+			}
+
+			long required = (count + 1) * 4L + count * 8L + charCount * 2L;
+
+			if (channel.size() - position != required) {
+				return null;
+			}
+
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, required);
+			IntBuffer offsets = buffer.slice().asIntBuffer();
+
+			buffer.position(buffer.position() + (count + 1) * 4);
+
+			LongBuffer times = buffer.slice().asLongBuffer();
+
+			buffer.position(buffer.position() + count * 8);
+
+			CharBuffer titles = buffer.slice().asCharBuffer();
+
+			return new TimeCatalog(count, offsets, times, titles);
+		}
+	}
+
+	/**
+	 * Read length bytes at position, or answer null if the file ends first.
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				return null;
+			}
+		}
+
+		buffer.flip();
+
+		return buffer;
+	}
+
+	/**
+	 * Compile the entries of the trie, which was built from the given
+	 * sources. The catalog is written to a temporary file first and then
+	 * moved into place.
+	 */
+	static void write(Path catalog, List<Path> sources, TitleTrie trie) throws IOException {
+		int[] count = { 0 };
+		int[] offsets = new int[Math.max(trie.size() + 1, 1)];
+		long[] times = new long[trie.size()];
+		char[][] titles = { new char[1024] };
+
+		trie.forEach((title, length, time) -> {
+			int index = count[0]++;
+			int start = offsets[index];
+			int end = start + length;
+
+			if (titles[0].length < end) {
+				titles[0] = Arrays.copyOf(titles[0], Math.max(end, titles[0].length * 2));
+			}
+
+			System.arraycopy(title, 0, titles[0], start, length);
+			offsets[index + 1] = end;
+			times[index] = time;
+		});
+
+		String[] names = describe(sources);
+		Path parent = catalog.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(parent, "catalog", ".tmp");
+
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024))) {
+				int charCount = offsets[count[0]];
+
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(count[0]);
+				out.writeInt(charCount);
+				out.writeInt(names.length);
+
+				for (String name : names) {
+					out.writeInt(name.length());
+					out.writeChars(name);
+				}
+
+				for (int i = 0; i <= count[0]; ++i) {
+					out.writeInt(offsets[i]);
+				}
+
+				for (int i = 0; i < count[0]; ++i) {
+					out.writeLong(times[i]);
+				}
+
+				for (int i = 0; i < charCount; ++i) {
+					out.writeChar(titles[0][i]);
+				}
+			}
+
+			Files.move(temporary, catalog, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private final int count;
+
+	private final IntBuffer offsets;
+
+	private final LongBuffer times;
+
+	private final CharBuffer titles;
+
+	private TimeCatalog(int count, IntBuffer offsets, LongBuffer times, CharBuffer titles) {
+		super();
+		this.count = count;
+		this.offsets = offsets;
+		this.times = times;
+		this.titles = titles;
+	}
+
+	/**
+	 * Answer the length of the common prefix of the title at index and the
+	 * first limit characters of the name.
+	 */
+	private int commonPrefix(int index, CharSequence name, int limit) {
+		int start = offsets.get(index);
+		int length = Math.min(offsets.get(index + 1) - start, limit);
+		int common = 0;
+
+		while (common < length && titles.get(start + common) == TitleTrie.fold(name.charAt(common))) {
+			common += 1;
+		}
+
+		return common;
+	}
+
+	/**
+	 * Compare the title at index with the first limit characters of the name.
+	 */
+	private int compare(int index, CharSequence name, int limit) {
+		int start = offsets.get(index);
+		int length = offsets.get(index + 1) - start;
+		int common = commonPrefix(index, name, limit);
+
+		if (common < length && common < limit) {
+			return titles.get(start + common) - TitleTrie.fold(name.charAt(common));
+		}
+
+		return length - limit;
+	}
+
+	/**
+	 * Answer the index of the greatest title that is not greater than the
+	 * first limit characters of the name, or -1.
+	 */
+	private int floor(CharSequence name, int limit) {
+		int low = 0;
+		int high = count - 1;
+
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int order = compare(middle, name, limit);
+
+			if (order < 0) {
+				low = middle + 1;
+			} else if (order > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+
+		return high;
+	}
+
+	@Override
+	public void forEach(Visitor visitor) {
+		char[] title = new char[64];
+
+		for (int index = 0; index < count; ++index) {
+			int start = offsets.get(index);
+			int length = offsets.get(index + 1) - start;
+
+			if (title.length < length) {
+				title = new char[Math.max(length, title.length * 2)];
+			}
+
+			for (int i = 0; i < length; ++i) {
+				title[i] = titles.get(start + i);
+			}
+
+			visitor.visit(title, length, times.get(index));
+		}
+	}
+
+	@Override
+	public long get(CharSequence name) {
+		for (int limit = name.length();;) {
+			int index = floor(name, limit);
+
+			if (index < 0) {
+				return NO_TIME;
+			}
+
+			int common = commonPrefix(index, name, limit);
+
+			if (common == offsets.get(index + 1) - offsets.get(index)) {
+				return times.get(index);
+			}
+
+			// the best match is no longer than the part in common
+			limit = common;
+		}
+	}
+
+	int size() {
+		return count;
+	}
+}
@@ -0,0 +1,288 @@
+package avi.times;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Applies times to media files. The folder walk happens on the calling thread
+ * while the file updates are done on a bounded pool (or, given no threads,
+ * on the calling thread too); the number of updates queued at once is also
+ * bounded so that very large trees don't accumulate work faster than it can
+ * be done.
+ *
+ * @author Keith
+ */
+final class TimeStamper {
+
+	static final int CORRECT = 1;
+
+	static final int FAILED = 3;
+
+	private static final Pattern MediaName = Pattern.compile("^.+\\.(avi|mkv|mov|mp4|mpg)$");
+
+	private static final long RECENT_MILLIS = 2000;
+
+	static final int UNMATCHED = 2;
+
+	static final int UPDATED = 0;
+
+	static boolean isMedia(String name) {
+		return MediaName.matcher(name).matches();
+	}
+
+	private final AtomicInteger correct;
+
+	private final ExecutorService executor;
+
+	private final AtomicInteger failed;
+
+	private final Semaphore pending;
+
+	private final AtomicInteger skipped;
+
+	private final ToLongFunction<String> times;
+
+	private final AtomicInteger unmatched;
+
+	private final AtomicInteger updated;
+
+	/**
+	 * Create a stamper that looks up file names with the given function,
+	 * which must return {@link TitleIndex#NO_TIME} for unknown names. If
+	 * threads is zero, no pool is created.
+	 */
+	TimeStamper(ToLongFunction<String> times, int threads) {
+		super();
+		this.correct = new AtomicInteger();
+		this.executor = threads > 0 ? Executors.newFixedThreadPool(threads) : null;
+		this.failed = new AtomicInteger();
+		this.pending = new Semaphore(threads * 4);
+		this.skipped = new AtomicInteger();
+		this.times = times;
+		this.unmatched = new AtomicInteger();
+		this.updated = new AtomicInteger();
+	}
+
+	/**
+	 * Wait for all queued updates to finish and release the pool.
+	 */
+	void finish() {
+		if (executor == null) {
+			return;
+		}
+
+		executor.shutdown();
+
+		for (;;) {
+			try {
+				if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				// ignore
+			}
+		}
+	}
+
+	void printSummary() {
+		System.out.format("%d updated, %d already correct, %d with no time, %d failed\n", // <br/>
+				Integer.valueOf(updated.get()), Integer.valueOf(correct.get()), // <br/>
+				Integer.valueOf(unmatched.get()), Integer.valueOf(failed.get()));
+
+		if (skipped.get() != 0) {
+			System.out.format("%d unchanged folders skipped\n", Integer.valueOf(skipped.get()));
+		}
+	}
+
+	private void queue(Path file, String displayName, FileTime modified, StampState.Folder folder) {
+		if (executor == null) {
+			stamp(file, displayName, modified, folder);
+			return;
+		}
+
+		pending.acquireUninterruptibly();
+
+		try {
+			executor.execute(() -> {
+				try {
+					stamp(file, displayName, modified, folder);
+				} finally {
+					pending.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			pending.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Update the time of a single file; modified is the file's current time
+	 * or null if it is not yet known. Answer one of the outcome constants.
+	 */
+	int stamp(Path file, String displayName, FileTime modified) {
+		long timeInMillis = times.applyAsLong(file.getFileName().toString());
+
+		if (timeInMillis == TitleIndex.NO_TIME) {
+			System.out.format("Warning: no time specified for '%s'\n", displayName);
+			unmatched.incrementAndGet();
+			return UNMATCHED;
+		}
+
+		try {
+			if (modified == null) {
+				modified = Files.getLastModifiedTime(file);
+			}
+
+			if (modified.toMillis() == timeInMillis) {
+				correct.incrementAndGet();
+				return CORRECT;
+			}
+
+			Files.setLastModifiedTime(file, FileTime.fromMillis(timeInMillis));
+			updated.incrementAndGet();
+			return UPDATED;
+		} catch (IOException e) {
+			System.out.format("Warning: failed to update time for '%s'\n", displayName);
+			failed.incrementAndGet();
+			return FAILED;
+		}
+	}
+
+	/**
+	 * Update the time of a single file found in a folder recorded in state
+	 * (or null), marking the folder dirty if the update fails.
+	 */
+	private void stamp(Path file, String displayName, FileTime modified, StampState.Folder folder) {
+		if (stamp(file, displayName, modified) == FAILED && folder != null) {
+			folder.markDirty();
+		}
+	}
+
+	/**
+	 * Queue updates for the media files in a folder and, if recursive, all the
+	 * folders below it. If state is not null, folders that are unchanged
+	 * since it was recorded are skipped and what is found is recorded in it.
+	 */
+	void stampTree(Path root, boolean recursive, StampState state) throws IOException {
+		visit(root, root, recursive, state);
+	}
+
+	private void visit(Path root, Path folder, boolean recursive, StampState state) throws IOException {
+		String key = root.relativize(folder).toString();
+		long modified = Files.getLastModifiedTime(folder).toMillis();
+		StampState.Folder known = state != null ? state.get(key) : null;
+
+		if (known != null && known.isCurrent(modified, times)) {
+			state.put(key, known);
+			skipped.incrementAndGet();
+
+			for (long time : known.times) {
+				(time == TitleIndex.NO_TIME ? unmatched : correct).incrementAndGet();
+			}
+
+			if (recursive) {
+				for (String name : known.folders) {
+					visitChild(root, folder.resolve(name), state);
+				}
+			}
+
+			return;
+		}
+
+		List<Path> folders = new ArrayList<>();
+		List<Path> files = new ArrayList<>();
+		List<FileTime> fileTimes = new ArrayList<>();
+		boolean complete = true;
+
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+			for (Path entry : entries) {
+				BasicFileAttributes attributes;
+
+				try {
+					attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+				} catch (IOException e) {
+					System.out.format("Warning: cannot read '%s': %s\n", root.relativize(entry), e.getMessage());
+					failed.incrementAndGet();
+					complete = false;
+					continue;
+				}
+
+				if (attributes.isDirectory()) {
+					// don't follow links to folders: they may form cycles;
+					// subfolders are recorded even if not visited now,
+					// so that a later recursive run can find them
+					if (!Files.isSymbolicLink(entry)) {
+						folders.add(entry);
+					}
+				} else if (isMedia(entry.getFileName().toString())) {
+					files.add(entry);
+					fileTimes.add(attributes.lastModifiedTime());
+				}
+			}
+		}
+
+		StampState.Folder record = null;
+
+		if (state != null) {
+			String[] folderNames = new String[folders.size()];
+			String[] names = new String[files.size()];
+			long[] nameTimes = new long[names.length];
+
+			for (int i = 0; i < folderNames.length; ++i) {
+				folderNames[i] = folders.get(i).getFileName().toString();
+			}
+
+			for (int i = 0; i < names.length; ++i) {
+				names[i] = files.get(i).getFileName().toString();
+				nameTimes[i] = times.applyAsLong(names[i]);
+			}
+
+			record = new StampState.Folder(modified, folderNames, names, nameTimes);
+
+			if (System.currentTimeMillis() - modified < RECENT_MILLIS) {
+				// the folder may still be changing within its timestamp resolution
+				record.markDirty();
+			} else if (!complete) {
+				// an entry that couldn't be read must be tried again
+				record.markDirty();
+			}
+
+			state.put(key, record);
+		}
+
+		for (int i = 0; i < files.size(); ++i) {
+			Path file = files.get(i);
+
+			queue(file, root.relativize(file).toString(), fileTimes.get(i), record);
+		}
+
+		if (recursive) {
+			for (Path child : folders) {
+				visitChild(root, child, state);
+			}
+		}
+	}
+
+	private void visitChild(Path root, Path folder, StampState state) {
+		try {
+			visit(root, folder, true, state);
+		} catch (IOException e) {
+			System.out.format("Warning: cannot read '%s': %s\n", root.relativize(folder), e.getMessage());
+			failed.incrementAndGet();
+		}
+	}
+}
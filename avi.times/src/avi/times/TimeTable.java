@@ -0,0 +1,78 @@
+package avi.times;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The titles and times read from a single data file, in file order. Tables
+ * can be read independently and then added to a {@link TitleTrie} in the
+ * order the data files were given.
+ *
+ * @author Keith
+ */
+final class TimeTable {
+
+	static TimeTable read(Path dataFile) throws IOException {
+		TimeTable table = new TimeTable();
+
+		DataFileParser.parse(dataFile, (title, time, clamped) -> table.add(title, time, clamped));
+
+		return table;
+	}
+
+	private final List<String> clampedTitles;
+
+	private int size;
+
+	private long[] times;
+
+	private String[] titles;
+
+	private TimeTable() {
+		super();
+		this.clampedTitles = new ArrayList<>();
+		this.size = 0;
+		this.times = new long[64];
+		this.titles = new String[64];
+	}
+
+	private void add(String title, long time, boolean clamped) {
+		if (size == titles.length) {
+			times = Arrays.copyOf(times, size * 2);
+			titles = Arrays.copyOf(titles, size * 2);
+		}
+
+		if (clamped) {
+			clampedTitles.add(title);
+		}
+
+		times[size] = time;
+		titles[size] = title;
+		size += 1;
+	}
+
+	/**
+	 * Add the entries of this table to the given trie; later entries replace
+	 * earlier ones with the same title.
+	 */
+	void addTo(TitleTrie trie) {
+		for (int i = 0; i < size; ++i) {
+			trie.put(titles[i], times[i]);
+		}
+	}
+
+	/**
+	 * Answer the titles whose times were clamped to 1970, in file order.
+	 */
+	List<String> getClampedTitles() {
+		return Collections.unmodifiableList(clampedTitles);
+	}
+
+	int size() {
+		return size;
+	}
+}
@@ -0,0 +1,298 @@
+package avi.times;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the library folders and stamps media files as they arrive. A file
+ * is considered complete once there have been no events for it for a quiet
+ * period and its size is unchanged; bursts of events for the same file, or
+ * for the data files, are coalesced into a single action.
+ *
+ * @author Keith
+ */
+final class TimeWatcher {
+
+	private static final class Pending {
+
+		long deadline;
+
+		long size;
+
+		Pending(long deadline, long size) {
+			super();
+			this.deadline = deadline;
+			this.size = size;
+		}
+	}
+
+	private static final long NEVER = Long.MAX_VALUE;
+
+	private static final long QUIET_MILLIS = 2000;
+
+	private static long sizeOf(Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private final Set<Path> dataFiles;
+
+	private final Map<WatchKey, Path> folders;
+
+	private final Map<Path, Pending> pending;
+
+	private final boolean recursive;
+
+	private final Runnable reload;
+
+	private long reloadDeadline;
+
+	private final Runnable rescan;
+
+	private long rescanDeadline;
+
+	private final Path root;
+
+	private final WatchService service;
+
+	private final TimeStamper stamper;
+
+	/**
+	 * Create a watcher for the library below root; reload is run when a data
+	 * file changes and rescan when the whole library must be stamped again.
+	 */
+	TimeWatcher(Path root, boolean recursive, List<Path> dataFiles, TimeStamper stamper, Runnable reload,
+			Runnable rescan) throws IOException {
+		super();
+		this.dataFiles = new HashSet<>();
+		this.folders = new HashMap<>();
+		this.pending = new HashMap<>();
+		this.recursive = recursive;
+		this.reload = reload;
+		this.reloadDeadline = NEVER;
+		this.rescan = rescan;
+		this.rescanDeadline = NEVER;
+		this.root = root.toAbsolutePath().normalize();
+		this.service = FileSystems.getDefault().newWatchService();
+		this.stamper = stamper;
+
+		for (Path dataFile : dataFiles) {
+			Path path = dataFile.toAbsolutePath().normalize();
+
+			this.dataFiles.add(path);
+			register(path.getParent());
+		}
+
+		if (recursive) {
+			registerTree(this.root, false);
+		} else {
+			register(this.root);
+		}
+	}
+
+	private void handle(WatchKey key, long now) {
+		Path folder = folders.get(key);
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			WatchEvent.Kind<?> kind = event.kind();
+
+			if (kind == StandardWatchEventKinds.OVERFLOW) {
+				rescanDeadline = Math.min(rescanDeadline, now + QUIET_MILLIS);
+				continue;
+			}
+
+			if (folder == null) {
+				continue;
+			}
+
+			Path child = folder.resolve((Path) event.context());
+
+			if (dataFiles.contains(child)) {
+				reloadDeadline = now + QUIET_MILLIS;
+			} else if (!isInLibrary(child)) {
+				continue;
+			} else if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+				pending.remove(child);
+			} else if (recursive && kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+				registerTree(child, true);
+			} else if (TimeStamper.isMedia(child.getFileName().toString())) {
+				schedule(child, now);
+			}
+		}
+
+		if (!key.reset()) {
+			folders.remove(key);
+		}
+	}
+
+	private boolean isInLibrary(Path file) {
+		return recursive ? file.startsWith(root) : root.equals(file.getParent());
+	}
+
+	/**
+	 * Perform the actions whose quiet periods have ended and answer the time
+	 * of the next deadline.
+	 */
+	private long processDue(long now) {
+		if (reloadDeadline <= now) {
+			reloadDeadline = NEVER;
+			rescanDeadline = NEVER;
+			pending.clear();
+			reload.run();
+			rescan.run();
+		} else if (rescanDeadline <= now) {
+			rescanDeadline = NEVER;
+			pending.clear();
+			rescan.run();
+		}
+
+		long next = Math.min(reloadDeadline, rescanDeadline);
+
+		for (Iterator<Map.Entry<Path, Pending>> iterator = pending.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<Path, Pending> entry = iterator.next();
+			Pending item = entry.getValue();
+
+			if (item.deadline > now) {
+				next = Math.min(next, item.deadline);
+				continue;
+			}
+
+			Path file = entry.getKey();
+			long size = sizeOf(file);
+
+			if (size < 0) {
+				iterator.remove();
+			} else if (size != item.size) {
+				// still growing without telling us
+				item.deadline = now + QUIET_MILLIS;
+				item.size = size;
+				next = Math.min(next, item.deadline);
+			} else {
+				iterator.remove();
+
+				String displayName = root.relativize(file).toString();
+
+				if (stamper.stamp(file, displayName, null) == TimeStamper.UPDATED) {
+					System.out.format("Updated time for '%s'\n", displayName);
+				}
+			}
+		}
+
+		return next;
+	}
+
+	private void register(Path folder) {
+		try {
+			WatchKey key = folder.register(service, // <br/>
+					StandardWatchEventKinds.ENTRY_CREATE, // <br/>
+					StandardWatchEventKinds.ENTRY_DELETE, // <br/>
+					StandardWatchEventKinds.ENTRY_MODIFY);
+
+			folders.put(key, folder);
+		} catch (IOException e) {
+			System.out.format("Warning: cannot watch '%s': %s\n", folder, e.getMessage());
+		}
+	}
+
+	/**
+	 * Watch a folder and all the folders below it; if schedule is true, the
+	 * media files found are stamped too (for folders moved into the library).
+	 */
+	private void registerTree(Path top, boolean schedule) {
+		long now = System.currentTimeMillis();
+
+		try {
+			Files.walkFileTree(top, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult preVisitDirectory(Path folder, BasicFileAttributes attributes) {
+					register(folder);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+					if (schedule && TimeStamper.isMedia(file.getFileName().toString())) {
+						schedule(file, now);
+					}
+
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					return FileVisitResult.CONTINUE;
+				}
+
+			});
+		} catch (NoSuchFileException e) {
+			// the folder has gone already
+		} catch (IOException e) {
+			System.out.format("Warning: cannot watch '%s': %s\n", top, e.getMessage());
+		}
+	}
+
+	/**
+	 * Watch until interrupted.
+	 */
+	void run() {
+		System.out.format("Watching '%s' for new files\n", root);
+
+		try {
+			for (;;) {
+				long now = System.currentTimeMillis();
+				long next = processDue(now);
+				WatchKey key;
+
+				if (next == NEVER) {
+					key = service.take();
+				} else {
+					key = service.poll(Math.max(1, next - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+				}
+
+				for (now = System.currentTimeMillis(); key != null; key = service.poll()) {
+					handle(key, now);
+				}
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			// stop watching
+		} finally {
+			try {
+				service.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private void schedule(Path file, long now) {
+		Pending item = pending.get(file);
+
+		if (item == null) {
+			pending.put(file, new Pending(now + QUIET_MILLIS, sizeOf(file)));
+		} else {
+			item.deadline = now + QUIET_MILLIS;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package avi.times;
+
+/**
+ * Maps titles to times, matching names by their longest title prefix,
+ * ignoring case.
+ *
+ * @author Keith
+ */
+interface TitleIndex {
+
+	interface Visitor {
+
+		/**
+		 * Visit an entry; only the first length characters of the folded
+		 * title are valid and the array may be reused after this returns.
+		 */
+		void visit(char[] title, int length, long time);
+
+	}
+
+	/**
+	 * The value returned by {@link #get(CharSequence)} when no title matches.
+	 */
+	long NO_TIME = Long.MIN_VALUE;
+
+	/**
+	 * Visit the entries of this index in ascending order of their folded
+	 * titles.
+	 */
+	void forEach(Visitor visitor);
+
+	/**
+	 * Answer the time associated with the longest title that is a prefix
+	 * (ignoring case) of the given name, or {@link #NO_TIME}.
+	 */
+	long get(CharSequence name);
+
+}
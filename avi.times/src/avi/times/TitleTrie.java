@@ -0,0 +1,206 @@
+package avi.times;
+
+import java.util.Arrays;
+
+/**
+ * A radix trie mapping titles to timestamps. Titles are case-folded the same
+ * way as {@link String#CASE_INSENSITIVE_ORDER} and lookups return the time of
+ * the longest title that is a prefix of the given name.
+ *
+ * @author Keith
+ */
+final class TitleTrie implements TitleIndex {
+
+	private static final class Node {
+
+		private static final char[] NoKeys = new char[0];
+
+		private static final Node[] NoNodes = new Node[0];
+
+		Node[] children;
+
+		int count;
+
+		/** the first character of each child's label, in ascending order */
+		char[] keys;
+
+		char[] label;
+
+		long time;
+
+		Node(char[] label) {
+			super();
+			this.children = NoNodes;
+			this.count = 0;
+			this.keys = NoKeys;
+			this.label = label;
+			this.time = NO_TIME;
+		}
+
+		Node child(char key) {
+			int index = indexOf(key);
+
+			return index >= 0 ? children[index] : null;
+		}
+
+		int indexOf(char key) {
+			return Arrays.binarySearch(keys, 0, count, key);
+		}
+
+		void insert(int index, Node child) {
+			if (count == keys.length) {
+				int capacity = Math.max(2, count * 2);
+
+				children = Arrays.copyOf(children, capacity);
+				keys = Arrays.copyOf(keys, capacity);
+			}
+
+			System.arraycopy(children, index, children, index + 1, count - index);
+			System.arraycopy(keys, index, keys, index + 1, count - index);
+
+			children[index] = child;
+			keys[index] = child.label[0];
+			count += 1;
+		}
+	}
+
+	static char fold(char ch) {
+		return Character.toLowerCase(Character.toUpperCase(ch));
+	}
+
+	private static char[] fold(CharSequence title) {
+		int length = title.length();
+		char[] folded = new char[length];
+
+		for (int i = 0; i < length; ++i) {
+			folded[i] = fold(title.charAt(i));
+		}
+
+		return folded;
+	}
+
+	private final Node root;
+
+	private int size;
+
+	TitleTrie() {
+		super();
+		this.root = new Node(Node.NoKeys);
+		this.size = 0;
+	}
+
+	@Override
+	public void forEach(Visitor visitor) {
+		forEach(root, new char[64], 0, visitor);
+	}
+
+	private char[] forEach(Node node, char[] key, int length, Visitor visitor) {
+		if (node.time != NO_TIME) {
+			visitor.visit(key, length, node.time);
+		}
+
+		for (int i = 0; i < node.count; ++i) {
+			char[] label = node.children[i].label;
+			int end = length + label.length;
+
+			if (key.length < end) {
+				key = Arrays.copyOf(key, Math.max(end, key.length * 2));
+			}
+
+			System.arraycopy(label, 0, key, length, label.length);
+			key = forEach(node.children[i], key, end, visitor);
+		}
+
+		return key;
+	}
+
+	@Override
+	public long get(CharSequence name) {
+		int length = name.length();
+		long time = root.time;
+		Node node = root;
+
+		for (int index = 0; index < length;) {
+			Node child = node.child(fold(name.charAt(index)));
+
+			if (child == null) {
+				break;
+			}
+
+			char[] label = child.label;
+
+			if (length - index < label.length) {
+				break;
+			}
+
+			for (int i = 1; i < label.length; ++i) {
+				if (fold(name.charAt(index + i)) != label[i]) {
+					return time;
+				}
+			}
+
+			index += label.length;
+			node = child;
+
+			if (node.time != NO_TIME) {
+				time = node.time;
+			}
+		}
+
+		return time;
+	}
+
+	/**
+	 * Associate the given time with a title, replacing any time previously
+	 * recorded for the same title (ignoring case).
+	 */
+	void put(CharSequence title, long time) {
+		char[] key = fold(title);
+		Node node = root;
+
+		for (int index = 0; index < key.length;) {
+			int slot = node.indexOf(key[index]);
+
+			if (slot < 0) {
+				Node leaf = new Node(Arrays.copyOfRange(key, index, key.length));
+
+				leaf.time = time;
+				node.insert(-(slot + 1), leaf);
+				size += 1;
+				return;
+			}
+
+			Node child = node.children[slot];
+			char[] label = child.label;
+			int common = 1;
+			int limit = Math.min(label.length, key.length - index);
+
+			while (common < limit && label[common] == key[index + common]) {
+				common += 1;
+			}
+
+			if (common < label.length) {
+				// split the edge where the new key diverges
+				Node middle = new Node(Arrays.copyOf(label, common));
+
+				child.label = Arrays.copyOfRange(label, common, label.length);
+				middle.insert(0, child);
+				node.children[slot] = middle;
+				child = middle;
+			}
+
+			index += common;
+			node = child;
+		}
+
+		if (node.time == NO_TIME) {
+			size += 1;
+		}
+
+		node.time = time;
+	}
+
+	int size() {
+		return size;
+	}
+}
@@ -1,14 +1,110 @@
 package quotes;
 
 import java.util.Calendar;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
 
-public final class Date {
+/**
+ * A day, packed into an int as year, month and day fields. Static methods
+ * work on the packed form (see {@link #value()}) directly, without creating
+ * objects; days may also be converted to and from the number of days since
+ * 1970-01-01 (the epoch day) for arithmetic.
+ */
+public final class Date implements Comparable<Date> {
 
-	private static final Pattern NumericPattern = Pattern.compile("(\\d{4})(\\d{2})(\\d{2})");
+	/** the days in 400 years */
+	private static final int DAYS_PER_ERA = 146097;
 
-	private static int value(int year, int month, int day) {
+	/** the days from 0000-03-01 to 1970-01-01 */
+	private static final int DAYS_TO_EPOCH = 719468;
+
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+
+	/**
+	 * Answer the packed date, days after (or before, if negative) value.
+	 */
+	public static int addDays(int value, int days) {
+		return fromEpochDay(toEpochDay(value) + days);
+	}
+
+	/**
+	 * Append value to builder in the form yyyy/mm/dd and answer builder.
+	 */
+	public static StringBuilder append(StringBuilder builder, int value) {
+		int year = value >>> 9;
+		int month = ((value >> 5) & 15) + 1;
+		int day = value & 31;
+
+		builder.append((char) ('0' + year / 1000));
+		builder.append((char) ('0' + year / 100 % 10));
+		builder.append((char) ('0' + year / 10 % 10));
+		builder.append((char) ('0' + year % 10));
+		builder.append('/');
+		builder.append((char) ('0' + month / 10));
+		builder.append((char) ('0' + month % 10));
+		builder.append('/');
+		builder.append((char) ('0' + day / 10));
+		builder.append((char) ('0' + day % 10));
+
+		return builder;
+	}
+
+	/**
+	 * Answer the day of the week of a packed date, from 1 for Monday to 7 for
+	 * Sunday.
+	 */
+	public static int dayOfWeek(int value) {
+		// the epoch was a Thursday
+		return Math.floorMod(toEpochDay(value) + 3, 7) + 1;
+	}
+
+	/**
+	 * Answer the number of days from first to last (negative if last is
+	 * earlier).
+	 */
+	public static int daysBetween(int first, int last) {
+		return toEpochDay(last) - toEpochDay(first);
+	}
+
+	/**
+	 * Answer the packed form of the date that is epochDay days after
+	 * 1970-01-01.
+	 */
+	public static int fromEpochDay(int epochDay) {
+		// count from 0000-03-01 so that leap days fall at the end of the year
+		int days = epochDay + DAYS_TO_EPOCH;
+		int era = Math.floorDiv(days, DAYS_PER_ERA);
+		int dayOfEra = days - era * DAYS_PER_ERA;
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		int month = shiftedMonth < 10 ? shiftedMonth + 2 : shiftedMonth - 10;
+		int year = yearOfEra + era * 400 + (month < 2 ? 1 : 0);
+
+		return pack(year, month, day);
+	}
+
+	/**
+	 * Answer the date with the given packed form.
+	 */
+	public static Date fromValue(int value) {
+		return new Date(value >>> 9, (value >> 5) & 15, value & 31);
+	}
+
+	/**
+	 * Answer the packed date after value.
+	 */
+	public static int nextDay(int value) {
+		// no month is shorter than 28 days
+		return (value & 31) < 28 ? value + 1 : addDays(value, 1);
+	}
+
+	/**
+	 * Answer the packed form of a date; month is zero-based.
+	 */
+	public static int pack(int year, int month, int day) {
 		if (!(0 <= year && year < 9999)) {
 			throw new IllegalArgumentException("Bad year: " + year);
 		}
@@ -24,12 +120,92 @@ public final class Date {
 		return (((year << 4) + month) << 5) + day;
 	}
 
-	public static Date yesterday() {
-		Calendar date = Calendar.getInstance();
+	/**
+	 * Answer the packed form of a date written as yyyymmdd.
+	 */
+	public static int parse(CharSequence yyyymmdd) {
+		if (yyyymmdd.length() != 8) {
+			throw new IllegalArgumentException("Bad date: " + yyyymmdd);
+		}
+
+		int digits = 0;
+
+		for (int i = 0; i < 8; ++i) {
+			char ch = yyyymmdd.charAt(i);
+
+			if (!('0' <= ch && ch <= '9')) {
+				throw new IllegalArgumentException("Bad date: " + yyyymmdd);
+			}
+
+			digits = digits * 10 + (ch - '0');
+		}
+
+		return pack(digits / 10000, digits / 100 % 100 - 1, digits % 100);
+	}
+
+	/**
+	 * Answer the packed date before value.
+	 */
+	public static int previousDay(int value) {
+		return (value & 31) > 1 ? value - 1 : addDays(value, -1);
+	}
+
+	/**
+	 * Answer the dates from first to last, inclusive.
+	 */
+	public static Iterable<Date> range(Date first, Date last) {
+		return () -> new Iterator<Date>() {
+
+			private int next = first.value;
+
+			@Override
+			public boolean hasNext() {
+				return next <= last.value;
+			}
+
+			@Override
+			public Date next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
 
-		date.setTimeInMillis(date.getTimeInMillis() - (24 * 60 * 60 * 1000));
+				Date date = fromValue(next);
 
-		return new Date(date);
+				next = nextDay(next);
+
+				return date;
+			}
+
+		};
+	}
+
+	/**
+	 * Answer the number of days from 1970-01-01 to a packed date.
+	 */
+	public static int toEpochDay(int value) {
+		int month = (value >> 5) & 15;
+		// count from 0000-03-01 so that leap days fall at the end of the year
+		int year = (value >>> 9) - (month < 2 ? 1 : 0);
+		int era = Math.floorDiv(year, 400);
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month < 2 ? month + 10 : month - 2) + 2) / 5 + (value & 31) - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+		return era * DAYS_PER_ERA + dayOfEra - DAYS_TO_EPOCH;
+	}
+
+	/**
+	 * Answer the current day in the default time zone.
+	 */
+	public static Date today() {
+		long now = System.currentTimeMillis();
+		long local = now + TimeZone.getDefault().getOffset(now);
+
+		return fromValue(fromEpochDay((int) Math.floorDiv(local, MILLIS_PER_DAY)));
+	}
+
+	public static Date yesterday() {
+		return today().previous();
 	}
 
 	private final int value;
@@ -40,36 +216,83 @@ public final class Date {
 
 	public Date(int year, int month, int day) {
 		super();
-		this.value = value(year, month, day);
+		this.value = pack(year, month, day);
 	}
 
 	public Date(String yyyymmdd) {
 		super();
+		this.value = parse(yyyymmdd);
+	}
 
-		Matcher matcher = NumericPattern.matcher(yyyymmdd);
-
-		if (!matcher.matches()) {
-			throw new IllegalArgumentException("Bad date: " + yyyymmdd);
-		}
-
-		this.value = value( // <br/>
-				Integer.parseInt(matcher.group(1)), // <br/>
-				Integer.parseInt(matcher.group(2)) - 1, // <br/>
-				Integer.parseInt(matcher.group(3)));
+	@Override
+	public int compareTo(Date that) {
+		return Integer.compare(this.value, that.value);
 	}
 
 	public int day() {
 		return value & 31;
 	}
 
+	/**
+	 * Answer the day of the week, from 1 for Monday to 7 for Sunday.
+	 */
+	public int dayOfWeek() {
+		return dayOfWeek(value);
+	}
+
+	/**
+	 * Answer the number of days from 1970-01-01 to this date.
+	 */
+	public int epochDay() {
+		return toEpochDay(value);
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		return object instanceof Date && ((Date) object).value == value;
+	}
+
+	@Override
+	public int hashCode() {
+		return value;
+	}
+
 	public int month() {
 		return (value >> 5) & 15;
 	}
 
+	/**
+	 * Answer the day after this one.
+	 */
+	public Date next() {
+		return fromValue(nextDay(value));
+	}
+
+	/**
+	 * Answer the date days after (or before, if negative) this one.
+	 */
+	public Date plusDays(int days) {
+		return fromValue(addDays(value, days));
+	}
+
+	/**
+	 * Answer the day before this one.
+	 */
+	public Date previous() {
+		return fromValue(previousDay(value));
+	}
+
 	@Override
 	public String toString() {
-		return String.format("%04d/%02d/%02d", // <br/>
-				Integer.valueOf(year()), Integer.valueOf(month() + 1), Integer.valueOf(day()));
+		return append(new StringBuilder(10), value).toString();
+	}
+
+	/**
+	 * Answer the packed form of this date; packed dates compare in the same
+	 * order as the dates themselves.
+	 */
+	public int value() {
+		return value;
 	}
 
 	public int year() {
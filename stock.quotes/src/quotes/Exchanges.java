@@ -0,0 +1,97 @@
+package quotes;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The exchanges on which symbols are listed, told apart by the suffixes of
+ * the symbols: TSX (.TO), TSXV (.V), CSE (.CN) or US (no suffix). Each has
+ * its own trading calendar: weekdays other than the dates listed in the file
+ * named by the quotes.holidays.<i>exchange</i> property (see
+ * {@link HolidayCalendar#load(java.nio.file.Path)}), or all weekdays if it
+ * isn't set or cannot be read.
+ */
+public final class Exchanges {
+
+	/** the calendars loaded so far, by exchange */
+	private static final Map<String, TradingCalendar> Calendars = new ConcurrentHashMap<>();
+
+	/**
+	 * Answer the calendar of the exchange on which symbol is listed.
+	 */
+	public static TradingCalendar calendarOf(String symbol) {
+		return Calendars.computeIfAbsent(exchangeOf(symbol), Exchanges::loadCalendar);
+	}
+
+	/**
+	 * Answer a calendar open on the days on which any of the exchanges where
+	 * symbols are listed is open.
+	 */
+	public static TradingCalendar calendarOfAny(Collection<String> symbols) {
+		Set<TradingCalendar> calendars = new LinkedHashSet<>();
+
+		for (String symbol : symbols) {
+			calendars.add(calendarOf(symbol));
+		}
+
+		if (calendars.size() == 1) {
+			return calendars.iterator().next();
+		}
+
+		if (calendars.isEmpty()) {
+			return TradingCalendar.WEEKDAYS;
+		}
+
+		return date -> {
+			for (TradingCalendar calendar : calendars) {
+				if (calendar.isTradingDay(date)) {
+					return true;
+				}
+			}
+
+			return false;
+		};
+	}
+
+	/**
+	 * Answer the exchange on which symbol is listed.
+	 */
+	public static String exchangeOf(String symbol) {
+		if (symbol.endsWith(".TO") || symbol.equals("^GSPTSE")) {
+			return "TSX";
+		}
+
+		if (symbol.endsWith(".V")) {
+			return "TSXV";
+		}
+
+		if (symbol.endsWith(".CN")) {
+			return "CSE";
+		}
+
+		return "US";
+	}
+
+	private static TradingCalendar loadCalendar(String exchange) {
+		String file = System.getProperty("quotes.holidays." + exchange);
+
+		if (file != null && !file.isEmpty()) {
+			try {
+				return HolidayCalendar.load(Paths.get(file));
+			} catch (IOException | IllegalArgumentException e) {
+				System.err.format("Warning: cannot read holidays '%s': %s\n", file, e.getMessage());
+			}
+		}
+
+		return TradingCalendar.WEEKDAYS;
+	}
+
+	private Exchanges() {
+		super();
+	}
+}
@@ -0,0 +1,104 @@
+package quotes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Asks a list of providers in turn, typically the fastest first, until one
+ * of them has a quote.
+ */
+public final class FailoverProvider implements QuoteProvider {
+
+	/**
+	 * The provider that answered the latest request for a symbol.
+	 */
+	private static final class Answer {
+
+		final int date;
+
+		/** null if none had a quote */
+		final QuoteProvider provider;
+
+		Answer(int date, QuoteProvider provider) {
+			super();
+			this.date = date;
+			this.provider = provider;
+		}
+	}
+
+	/** the latest answer for each symbol */
+	private final Map<String, Answer> answers;
+
+	private final List<QuoteProvider> providers;
+
+	public FailoverProvider(List<QuoteProvider> providers) {
+		super();
+		this.answers = new ConcurrentHashMap<>();
+		this.providers = new ArrayList<>(providers);
+	}
+
+	/**
+	 * Answer the first quote found. If there is none, but some provider
+	 * could not be asked, its exception is thrown.
+	 */
+	@Override
+	public Quote getQuote(String symbol, Date date) throws IOException {
+		IOException failure = null;
+
+		for (QuoteProvider provider : providers) {
+			try {
+				Quote quote = provider.getQuote(symbol, date);
+
+				if (quote != null) {
+					answers.put(symbol, new Answer(date.value(), provider));
+					return quote;
+				}
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				} else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+
+		if (failure != null) {
+			answers.remove(symbol);
+			throw failure;
+		}
+
+		answers.put(symbol, new Answer(date.value(), null));
+
+		return null;
+	}
+
+	/**
+	 * Answer whether the provider that answered the latest request for the
+	 * quote has it locally, or if none had it, whether all of them answered
+	 * locally. Before the quote has been asked for, answer whether the first
+	 * provider, which would answer it, has it locally.
+	 */
+	@Override
+	public boolean isLocal(String symbol, Date date) {
+		Answer answer = answers.get(symbol);
+
+		if (answer == null || answer.date != date.value()) {
+			return providers.isEmpty() || providers.get(0).isLocal(symbol, date);
+		}
+
+		if (answer.provider != null) {
+			return answer.provider.isLocal(symbol, date);
+		}
+
+		for (QuoteProvider provider : providers) {
+			if (!provider.isLocal(symbol, date)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,296 @@
+package quotes;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Fetches the quotes for many symbols on one date. Quotes the provider has
+ * locally are answered at once; the rest are fetched by a few threads in
+ * order of priority (lowest first), and then in the order given: the pool
+ * runs one step per task, each taking the first task waiting, so all those
+ * asked for at once are waiting before any is taken. Each quote fetched, or
+ * found to be missing, is recorded in a checkpoint file so that an
+ * interrupted run may be resumed without fetching it again. Quotes for today
+ * are still changing, so they are neither recorded nor resumed.
+ * <p>
+ * Once a run finishes, its checkpoint is deleted, and the symbols that could
+ * not be fetched are listed, one per line, in a file named like the
+ * checkpoint with .failed added (which is deleted if there are none).
+ *
+ * <pre>
+ * yyyymmdd symbol price volume
+ * yyyymmdd symbol -
+ * </pre>
+ */
+public final class FetchScheduler implements AutoCloseable {
+
+	private final class Task implements Comparable<Task> {
+
+		final CompletableFuture<Quote> future;
+
+		final int order;
+
+		final int priority;
+
+		final String symbol;
+
+		Task(String symbol, int priority, int order) {
+			super();
+			this.future = new CompletableFuture<>();
+			this.order = order;
+			this.priority = priority;
+			this.symbol = symbol;
+		}
+
+		@Override
+		public int compareTo(Task that) {
+			int result = Integer.compare(this.priority, that.priority);
+
+			return result != 0 ? result : Integer.compare(this.order, that.order);
+		}
+
+		void run() {
+			Quote quote;
+
+			try {
+				quote = provider.getQuote(symbol, date);
+				record(symbol, quote);
+			} catch (IOException | RuntimeException e) {
+				fail(symbol);
+				// counted before the future is done, so that close sees it
+				pending.decrementAndGet();
+				future.completeExceptionally(e);
+				return;
+			}
+
+			pending.decrementAndGet();
+			future.complete(quote);
+		}
+	}
+
+	private static String keyOf(int date, String symbol) {
+		return date + " " + symbol;
+	}
+
+	/**
+	 * Read the quotes recorded in a checkpoint file, keyed by date and symbol
+	 * (and null if there is none), ignoring any line that is incomplete.
+	 */
+	private static Map<String, Quote> readCheckpoint(Path file) throws IOException {
+		Map<String, Quote> quotes = new HashMap<>();
+
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split(" ");
+
+				try {
+					if (fields.length == 3 && fields[2].equals("-")) {
+						quotes.put(keyOf(Date.parse(fields[0]), fields[1]), null);
+					} else if (fields.length == 4) {
+						quotes.put(keyOf(Date.parse(fields[0]), fields[1]), // <br/>
+								new Quote(Double.parseDouble(fields[2]), Long.parseLong(fields[3])));
+					}
+				} catch (IllegalArgumentException e) {
+					// ignore it
+				}
+			}
+		} catch (NoSuchFileException e) {
+			// there is no run to resume
+		}
+
+		return quotes;
+	}
+
+	/** the checkpoint, or null if the quotes are not recorded */
+	private final Path checkpoint;
+
+	private final Date date;
+
+	/** the quotes already recorded in the checkpoint */
+	private final Map<String, Quote> done;
+
+	private final ExecutorService executor;
+
+	/** the symbols that could not be fetched */
+	private final List<String> failed;
+
+	/** the file listing the symbols that could not be fetched, or null */
+	private final Path failedList;
+
+	private BufferedWriter journal;
+
+	/** the number of quotes to be fetched */
+	private final AtomicInteger pending;
+
+	private final QuoteProvider provider;
+
+	/** the tasks waiting to be run, first in order of priority */
+	private final PriorityQueue<Task> tasks;
+
+	/**
+	 * Create a scheduler for quotes on date from provider, fetched by up to
+	 * threads at once; checkpoint may be null to keep no record.
+	 */
+	public FetchScheduler(QuoteProvider provider, Date date, int threads, Path checkpoint) throws IOException {
+		super();
+		// live quotes may have changed since they were recorded
+		this.checkpoint = checkpoint != null && date.value() < Date.today().value() ? checkpoint : null;
+		this.date = date;
+		this.done = this.checkpoint != null ? readCheckpoint(this.checkpoint) : new HashMap<>();
+		this.executor = Executors.newFixedThreadPool(threads);
+		this.failed = new ArrayList<>();
+		this.failedList = checkpoint != null ? checkpoint.resolveSibling(checkpoint.getFileName() + ".failed") : null;
+		this.journal = null;
+		this.pending = new AtomicInteger();
+		this.provider = provider;
+		this.tasks = new PriorityQueue<>();
+	}
+
+	/**
+	 * Stop fetching; if every quote asked for was fetched or failed, delete
+	 * the checkpoint and list the symbols that failed.
+	 */
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+
+		synchronized (this) {
+			if (journal != null) {
+				journal.close();
+				journal = null;
+			}
+
+			if (pending.get() != 0) {
+				// interrupted: keep the checkpoint to resume from
+				return;
+			}
+
+			if (checkpoint != null) {
+				Files.deleteIfExists(checkpoint);
+			}
+
+			if (failedList != null) {
+				if (failed.isEmpty()) {
+					Files.deleteIfExists(failedList);
+				} else {
+					Files.createDirectories(failedList.toAbsolutePath().getParent());
+					Files.write(failedList, failed, StandardCharsets.UTF_8);
+				}
+			}
+		}
+	}
+
+	private synchronized void fail(String symbol) {
+		failed.add(symbol);
+	}
+
+	/**
+	 * Start getting the quotes for symbols, answering a future for each, in
+	 * the same order.
+	 */
+	public List<Future<Quote>> fetch(List<String> symbols, ToIntFunction<String> priority) {
+		List<Future<Quote>> quotes = new ArrayList<>(symbols.size());
+		List<Task> batch = new ArrayList<>();
+		int value = date.value();
+
+		for (int i = 0; i < symbols.size(); ++i) {
+			String symbol = symbols.get(i);
+			String key = keyOf(value, symbol);
+
+			if (done.containsKey(key)) {
+				quotes.add(CompletableFuture.completedFuture(done.get(key)));
+			} else if (provider.isLocal(symbol, date)) {
+				CompletableFuture<Quote> quote = new CompletableFuture<>();
+
+				try {
+					quote.complete(provider.getQuote(symbol, date));
+				} catch (IOException | RuntimeException e) {
+					fail(symbol);
+					quote.completeExceptionally(e);
+				}
+
+				quotes.add(quote);
+			} else {
+				Task task = new Task(symbol, priority.applyAsInt(symbol), i);
+
+				pending.incrementAndGet();
+				batch.add(task);
+				quotes.add(task.future);
+			}
+		}
+
+		synchronized (tasks) {
+			tasks.addAll(batch);
+		}
+
+		for (int i = 0; i < batch.size(); ++i) {
+			executor.execute(this::runNext);
+		}
+
+		return quotes;
+	}
+
+	private synchronized void record(String symbol, Quote quote) throws IOException {
+		if (checkpoint == null) {
+			return;
+		}
+
+		if (journal == null) {
+			Path parent = checkpoint.toAbsolutePath().getParent();
+
+			if (parent != null) {
+				Files.createDirectories(parent);
+			}
+
+			journal = Files.newBufferedWriter(checkpoint, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND);
+		}
+
+		StringBuilder line = new StringBuilder();
+
+		line.append(date.year() * 10000 + (date.month() + 1) * 100 + date.day()).append(' ');
+		line.append(symbol).append(' ');
+
+		if (quote != null) {
+			line.append(quote.getPrice()).append(' ').append(quote.getVolume());
+		} else {
+			line.append('-');
+		}
+
+		journal.write(line.append('\n').toString());
+		// each line must survive an interruption
+		journal.flush();
+	}
+
+	/**
+	 * Run the first task waiting; there is one step for each task.
+	 */
+	private void runNext() {
+		Task task;
+
+		synchronized (tasks) {
+			task = tasks.poll();
+		}
+
+		task.run();
+	}
+}
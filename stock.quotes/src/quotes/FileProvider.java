@@ -0,0 +1,170 @@
+package quotes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers quotes from a folder of history files, one per symbol, named like
+ * IBM.csv and in the form read by {@link HistoryParser}. Each file is read
+ * once, when first needed, and again only if it changes.
+ */
+public final class FileProvider implements QuoteProvider {
+
+	private static final class History {
+
+		final double[] closes;
+
+		final int count;
+
+		final int[] dates;
+
+		final long modified;
+
+		final long[] volumes;
+
+		History(long modified, int count, int[] dates, double[] closes, long[] volumes) {
+			super();
+			this.closes = closes;
+			this.count = count;
+			this.dates = dates;
+			this.modified = modified;
+			this.volumes = volumes;
+		}
+
+		Quote getQuote(Date date) {
+			int index = Arrays.binarySearch(dates, 0, count, date.value());
+
+			return index >= 0 ? new Quote(closes[index], volumes[index]) : null;
+		}
+	}
+
+	private static History read(Path file, long modified) throws IOException {
+		int[] count = { 0 };
+		int[][] dates = { new int[256] };
+		double[][] closes = { new double[256] };
+		long[][] volumes = { new long[256] };
+		boolean[] sorted = { true };
+		HistoryParser parser = new HistoryParser((date, open, high, low, close, volume, adjustedClose) -> {
+			int index = count[0]++;
+
+			if (index == dates[0].length) {
+				dates[0] = Arrays.copyOf(dates[0], index * 2);
+				closes[0] = Arrays.copyOf(closes[0], index * 2);
+				volumes[0] = Arrays.copyOf(volumes[0], index * 2);
+			}
+
+			if (index > 0 && dates[0][index - 1] >= date) {
+				sorted[0] = false;
+			}
+
+			dates[0][index] = date;
+			closes[0][index] = close;
+			volumes[0][index] = volume;
+		});
+
+		try (InputStream in = Files.newInputStream(file)) {
+			parser.parse(in);
+		}
+
+		if (!sorted[0]) {
+			// history is usually newest first
+			count[0] = sort(count[0], dates[0], closes[0], volumes[0]);
+		}
+
+		return new History(modified, count[0], dates[0], closes[0], volumes[0]);
+	}
+
+	/**
+	 * Sort the rows by date, keeping the last of any with the same date, and
+	 * answer how many remain.
+	 */
+	private static int sort(int count, int[] dates, double[] closes, long[] volumes) {
+		long[] keys = new long[count];
+
+		for (int i = 0; i < count; ++i) {
+			keys[i] = ((long) dates[i] << 32) | i;
+		}
+
+		Arrays.sort(keys);
+
+		int[] oldDates = Arrays.copyOf(dates, count);
+		double[] oldCloses = Arrays.copyOf(closes, count);
+		long[] oldVolumes = Arrays.copyOf(volumes, count);
+		int kept = 0;
+
+		for (int i = 0; i < count; ++i) {
+			int from = (int) keys[i];
+
+			if (kept > 0 && dates[kept - 1] == oldDates[from]) {
+				kept -= 1;
+			}
+
+			dates[kept] = oldDates[from];
+			closes[kept] = oldCloses[from];
+			volumes[kept] = oldVolumes[from];
+			kept += 1;
+		}
+
+		return kept;
+	}
+
+	private final Path folder;
+
+	private final Map<String, History> histories;
+
+	public FileProvider(Path folder) {
+		super();
+		this.folder = folder;
+		this.histories = new ConcurrentHashMap<>();
+	}
+
+	@Override
+	public Quote getQuote(String symbol, Date date) throws IOException {
+		if (symbol.indexOf('/') >= 0 || symbol.indexOf('\\') >= 0) {
+			return null;
+		}
+
+		Path file = folder.resolve(symbol + ".csv");
+		long modified;
+
+		try {
+			modified = Files.getLastModifiedTime(file).toMillis();
+		} catch (NoSuchFileException e) {
+			histories.remove(symbol);
+			return null;
+		}
+
+		History history = histories.get(symbol);
+
+		if (history == null || history.modified != modified) {
+			history = read(file, modified);
+			histories.put(symbol, history);
+		}
+
+		return history.getQuote(date);
+	}
+
+	/**
+	 * Answer whether the history file has a row for the date that won't
+	 * change, that is, one before today. A missing row, or today's, must be
+	 * looked for elsewhere or again.
+	 */
+	@Override
+	public boolean isLocal(String symbol, Date date) {
+		if (date.value() >= Date.today().value()) {
+			return false;
+		}
+
+		try {
+			return getQuote(symbol, date) != null;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
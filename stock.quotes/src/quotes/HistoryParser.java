@@ -0,0 +1,333 @@
+package quotes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads history in CSV form, one row per day:
+ *
+ * <pre>
+ * Date,Open,High,Low,Close,Volume,Adj Close
+ * 2016-03-04,134.50,136.25,133.90,135.80,4412300,135.80
+ * </pre>
+ *
+ * Fields are parsed directly from the bytes: dates to packed form (see
+ * {@link Date#value()}), prices to doubles and volumes to longs. Adj Close
+ * may be left out, in which case it is taken to be the close. The header,
+ * and any row that doesn't have that form, are skipped. A parser is not
+ * thread-safe, but it may be used for any number of inputs.
+ */
+public final class HistoryParser {
+
+	public interface Handler {
+
+		void quote(int date, double open, double high, double low, double close, long volume,
+				double adjustedClose);
+
+	}
+
+	/** the largest mantissa that is an exact double */
+	private static final long MAX_EXACT = 1L << 53;
+
+	/** the largest number of digits that fit in a long */
+	private static final int MAX_DIGITS = 18;
+
+	/** the powers of ten that are exact doubles */
+	private static final double[] POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+			1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private static boolean isDigit(int ch) {
+		return '0' <= ch && ch <= '9';
+	}
+
+	private byte[] buffer;
+
+	private ByteBuffer data;
+
+	private final Handler handler;
+
+	private int position;
+
+	/** whether the current row is still well-formed */
+	private boolean valid;
+
+	public HistoryParser(Handler handler) {
+		super();
+		this.buffer = null;
+		this.data = null;
+		this.handler = handler;
+		this.position = 0;
+		this.valid = false;
+	}
+
+	/**
+	 * Read all the rows from the stream; it is not closed.
+	 */
+	public void parse(InputStream in) throws IOException {
+		if (buffer == null) {
+			buffer = new byte[64 * 1024];
+		}
+
+		int length = 0;
+
+		for (;;) {
+			int count = in.read(buffer, length, buffer.length - length);
+
+			if (count < 0) {
+				break;
+			}
+
+			length += count;
+
+			int done = parseLines(ByteBuffer.wrap(buffer), 0, length, false);
+
+			// keep the incomplete line for next time
+			System.arraycopy(buffer, done, buffer, 0, length - done);
+			length -= done;
+
+			if (length == buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+		}
+
+		parseLines(ByteBuffer.wrap(buffer), 0, length, true);
+	}
+
+	private void parseLine(int start, int end) {
+		if (start == end || !isDigit(data.get(start))) {
+			// a header or an empty line
+			return;
+		}
+
+		position = start;
+		valid = true;
+
+		int date = readDate(end);
+
+		skipComma(end);
+
+		double open = readDouble(end);
+
+		skipComma(end);
+
+		double high = readDouble(end);
+
+		skipComma(end);
+
+		double low = readDouble(end);
+
+		skipComma(end);
+
+		double close = readDouble(end);
+
+		skipComma(end);
+
+		long volume = readLong(end);
+		double adjustedClose = close;
+
+		if (position < end) {
+			skipComma(end);
+			adjustedClose = readDouble(end);
+		}
+
+		if (valid && position == end) {
+			handler.quote(date, open, high, low, close, volume, adjustedClose);
+		}
+	}
+
+	/**
+	 * Read the rows between start and end of the buffer, which must begin at
+	 * the start of a line. If last is false, a line without a line end is
+	 * left alone. Answer where the unread part begins.
+	 */
+	public int parseLines(ByteBuffer bytes, int start, int end, boolean last) {
+		int lineStart = start;
+
+		data = bytes;
+
+		for (;;) {
+			int lineEnd = lineStart;
+
+			while (lineEnd < end && bytes.get(lineEnd) != '\n') {
+				lineEnd += 1;
+			}
+
+			if (lineEnd == end && !(last && lineStart < end)) {
+				break;
+			}
+
+			parseLine(lineStart, lineEnd > lineStart && bytes.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd);
+
+			lineStart = lineEnd + 1;
+
+			if (lineStart > end) {
+				lineStart = end;
+				break;
+			}
+		}
+
+		data = null;
+
+		return lineStart;
+	}
+
+	private int readDate(int end) {
+		// yyyy-mm-dd, with any separators
+		if (end - position < 10) {
+			valid = false;
+			return 0;
+		}
+
+		int year = readDigits(4);
+
+		position += 1;
+
+		int month = readDigits(2);
+
+		position += 1;
+
+		int day = readDigits(2);
+
+		if (!(1 <= month && month <= 12 && 1 <= day && day <= 31)) {
+			valid = false;
+			return 0;
+		}
+
+		return Date.pack(year, month - 1, day);
+	}
+
+	private int readDigits(int count) {
+		int value = 0;
+
+		for (int i = 0; i < count; ++i) {
+			int ch = data.get(position++);
+
+			if (!isDigit(ch)) {
+				valid = false;
+			}
+
+			value = value * 10 + (ch - '0');
+		}
+
+		return value;
+	}
+
+	/**
+	 * Read a decimal number, which should end at a comma or end.
+	 */
+	private double readDouble(int end) {
+		int start = position;
+		boolean negative = false;
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean point = false;
+		boolean empty = true;
+
+		if (position >= end) {
+			valid = false;
+			return 0;
+		}
+
+		if (data.get(position) == '-') {
+			negative = true;
+			position += 1;
+		}
+
+		for (; position < end; ++position) {
+			int ch = data.get(position);
+
+			if (isDigit(ch)) {
+				empty = false;
+
+				if (mantissa != 0 || ch != '0') {
+					digits += 1;
+				}
+
+				mantissa = mantissa * 10 + (ch - '0');
+
+				if (point) {
+					scale += 1;
+				}
+			} else if (ch == '.' && !point) {
+				point = true;
+			} else if (ch == ',') {
+				break;
+			} else if (ch == 'e' || ch == 'E') {
+				return readSlowly(start, end);
+			} else {
+				valid = false;
+				return 0;
+			}
+		}
+
+		if (empty || digits > MAX_DIGITS || mantissa > MAX_EXACT || scale >= POWERS.length) {
+			return readSlowly(start, end);
+		}
+
+		// both are exact, so the quotient is correctly rounded
+		double value = mantissa / POWERS[scale];
+
+		return negative ? -value : value;
+	}
+
+	private long readLong(int end) {
+		int start = position;
+		long value = 0;
+
+		for (; position < end; ++position) {
+			int ch = data.get(position);
+
+			if (isDigit(ch) && position - start < MAX_DIGITS) {
+				value = value * 10 + (ch - '0');
+			} else if (ch == ',') {
+				break;
+			} else {
+				valid = false;
+				return 0;
+			}
+		}
+
+		if (position == start) {
+			valid = false;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Read a number that is too long or unusual for readDouble.
+	 */
+	private double readSlowly(int start, int end) {
+		position = start;
+
+		while (position < end && data.get(position) != ',') {
+			position += 1;
+		}
+
+		byte[] text = new byte[position - start];
+
+		for (int i = 0; i < text.length; ++i) {
+			text[i] = data.get(start + i);
+		}
+
+		try {
+			return Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+		} catch (NumberFormatException e) {
+			valid = false;
+			return 0;
+		}
+	}
+
+	private void skipComma(int end) {
+		if (valid && position < end && data.get(position) == ',') {
+			position += 1;
+		} else {
+			valid = false;
+			position = end;
+		}
+	}
+}
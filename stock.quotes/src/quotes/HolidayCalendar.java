@@ -0,0 +1,57 @@
+package quotes;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A calendar that is open on weekdays, except for a list of holidays.
+ */
+public final class HolidayCalendar implements TradingCalendar {
+
+	/**
+	 * Read holidays from a file with one date (yyyymmdd) per line; blank
+	 * lines and those beginning with # are ignored.
+	 */
+	public static HolidayCalendar load(Path file) throws IOException {
+		int[] holidays = new int[64];
+		int count = 0;
+
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				if (count == holidays.length) {
+					holidays = Arrays.copyOf(holidays, count * 2);
+				}
+
+				holidays[count++] = Date.parse(line);
+			}
+		}
+
+		return new HolidayCalendar(Arrays.copyOf(holidays, count));
+	}
+
+	/** sorted */
+	private final int[] holidays;
+
+	public HolidayCalendar(int... holidays) {
+		super();
+		this.holidays = holidays.clone();
+		Arrays.sort(this.holidays);
+	}
+
+	@Override
+	public boolean isTradingDay(int date) {
+		return WEEKDAYS.isTradingDay(date) && Arrays.binarySearch(holidays, date) < 0;
+	}
+}
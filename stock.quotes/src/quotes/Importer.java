@@ -0,0 +1,335 @@
+package quotes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports history from CSV files into the series store (see
+ * {@link SeriesStore#getDefaultFolder()}):
+ *
+ * <pre>
+ * Importer file-or-folder...
+ * </pre>
+ *
+ * Each file is either in the form read by {@link HistoryParser}, for the
+ * symbol it is named for (like IBM.csv), or has a header beginning with
+ * Symbol and the symbol first on each row, as written by {@link QuoteServer}.
+ * Files are mapped into memory in chunks that end at line ends, and the
+ * chunks are parsed in parallel. The rows for each symbol are merged with
+ * those already stored, sorted by date (the row read last for a date wins)
+ * and written as a new series.
+ */
+public final class Importer {
+
+	/** the size of the chunks parsed at once, in bytes */
+	private static final long ChunkSize = Long.getLong("quotes.import.chunkSize", 8 << 20).longValue();
+
+	private static final int Threads = Integer.getInteger("quotes.import.threads",
+			Runtime.getRuntime().availableProcessors()).intValue();
+
+	/**
+	 * Add the CSV files at path (a file or a folder of them) to files.
+	 */
+	private static void addFiles(Path path, List<Path> files) throws IOException {
+		if (!Files.isDirectory(path)) {
+			files.add(path);
+			return;
+		}
+
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(path, "*.csv")) {
+			for (Path entry : entries) {
+				files.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * Answer whether a file has the symbol first on each row.
+	 */
+	private static boolean hasSymbols(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(7);
+
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+			// keep reading
+		}
+
+		return new String(header.array(), 0, header.position(), StandardCharsets.US_ASCII)
+				.equalsIgnoreCase("Symbol,");
+	}
+
+	private static <T> T join(Future<T> future) throws IOException {
+		for (;;) {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				// ignore
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+
+				throw new IOException(cause);
+			}
+		}
+	}
+
+	/**
+	 * Answer the position just after the first line end at or after
+	 * position, or size if there is none.
+	 */
+	private static long lineEnd(FileChannel channel, long position, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+		while (position < size) {
+			buffer.clear();
+
+			int count = channel.read(buffer, position);
+
+			if (count <= 0) {
+				break;
+			}
+
+			for (int i = 0; i < count; ++i) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+
+			position += count;
+		}
+
+		return size;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.out.println("Usage: Importer file-or-folder...");
+			return;
+		}
+
+		List<Path> files = new ArrayList<>();
+
+		for (String arg : args) {
+			addFiles(Paths.get(arg), files);
+		}
+
+		Importer importer = new Importer(new SeriesStore(SeriesStore.getDefaultFolder()));
+
+		try {
+			importer.run(files);
+		} finally {
+			importer.executor.shutdown();
+		}
+	}
+
+	/**
+	 * Parse the rows in a chunk of a file, for symbol or, if symbol is null,
+	 * for the symbol first on each row.
+	 */
+	private static Map<String, QuoteRows> parse(MappedByteBuffer chunk, String symbol) {
+		Map<String, QuoteRows> symbols = new HashMap<>();
+		QuoteRows[] current = { null };
+		HistoryParser parser = new HistoryParser((date, open, high, low, close, volume, adjustedClose) -> {
+			current[0].add(date, open, high, low, close, volume);
+		});
+		int end = chunk.limit();
+
+		if (symbol != null) {
+			current[0] = new QuoteRows();
+			symbols.put(symbol, current[0]);
+			parser.parseLines(chunk, 0, end, true);
+			return symbols;
+		}
+
+		byte[] previous = new byte[0];
+
+		for (int lineStart = 0; lineStart < end;) {
+			int comma = lineStart;
+
+			while (comma < end && chunk.get(comma) != ',' && chunk.get(comma) != '\n') {
+				comma += 1;
+			}
+
+			int lineEnd = comma;
+
+			while (lineEnd < end && chunk.get(lineEnd) != '\n') {
+				lineEnd += 1;
+			}
+
+			if (comma < lineEnd) {
+				// rows are usually grouped by symbol
+				if (!startsWith(chunk, lineStart, comma, previous)) {
+					previous = new byte[comma - lineStart];
+
+					for (int i = 0; i < previous.length; ++i) {
+						previous[i] = chunk.get(lineStart + i);
+					}
+
+					current[0] = symbols.computeIfAbsent(new String(previous, StandardCharsets.UTF_8),
+							key -> new QuoteRows());
+				}
+
+				parser.parseLines(chunk, comma + 1, lineEnd, true);
+			}
+
+			lineStart = lineEnd + 1;
+		}
+
+		return symbols;
+	}
+
+	/**
+	 * Answer whether the bytes of chunk from start to end are those of
+	 * prefix.
+	 */
+	private static boolean startsWith(MappedByteBuffer chunk, int start, int end, byte[] prefix) {
+		if (end - start != prefix.length) {
+			return false;
+		}
+
+		for (int i = 0; i < prefix.length; ++i) {
+			if (chunk.get(start + i) != prefix[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static String symbolOf(Path file) {
+		String name = file.getFileName().toString();
+
+		return name.endsWith(".csv") ? name.substring(0, name.length() - 4) : name;
+	}
+
+	private final ExecutorService executor;
+
+	private final SeriesStore store;
+
+	public Importer(SeriesStore store) {
+		super();
+		this.executor = Executors.newFixedThreadPool(Math.max(1, Threads));
+		this.store = store;
+	}
+
+	/**
+	 * Start parsing a file, adding a future for each of its chunks to chunks.
+	 */
+	private long parse(Path file, List<Future<Map<String, QuoteRows>>> chunks) throws IOException {
+		try (FileChannel channel = FileChannel.open(file)) {
+			long size = channel.size();
+			String symbol = hasSymbols(channel) ? null : symbolOf(file);
+
+			for (long start = 0; start < size;) {
+				long end = lineEnd(channel, Math.min(start + ChunkSize, size), size);
+				// the mapping remains valid after the channel is closed
+				MappedByteBuffer chunk = channel.map(MapMode.READ_ONLY, start, end - start);
+
+				chunks.add(executor.submit(() -> parse(chunk, symbol)));
+				start = end;
+			}
+
+			return size;
+		}
+	}
+
+	/**
+	 * Import the given files, in order, so that a later file wins over an
+	 * earlier one for the same symbol and date.
+	 */
+	public void run(List<Path> files) throws IOException {
+		long start = System.nanoTime();
+		List<Future<Map<String, QuoteRows>>> chunks = new ArrayList<>();
+		long bytes = 0;
+
+		for (Path file : files) {
+			bytes += parse(file, chunks);
+		}
+
+		// gather the rows for each symbol in the order they were read
+		Map<String, List<QuoteRows>> symbols = new TreeMap<>();
+		long rowCount = 0;
+
+		for (Future<Map<String, QuoteRows>> chunk : chunks) {
+			for (Map.Entry<String, QuoteRows> entry : join(chunk).entrySet()) {
+				QuoteRows rows = entry.getValue();
+
+				if (rows.size() != 0) {
+					symbols.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(rows);
+					rowCount += rows.size();
+				}
+			}
+		}
+
+		long parsed = System.nanoTime();
+		List<Future<Integer>> writes = new ArrayList<>(symbols.size());
+
+		for (Map.Entry<String, List<QuoteRows>> entry : symbols.entrySet()) {
+			writes.add(executor.submit(() -> Integer.valueOf(write(entry.getKey(), entry.getValue()))));
+		}
+
+		for (Future<Integer> write : writes) {
+			join(write);
+		}
+
+		long finished = System.nanoTime();
+
+		System.out.format("Imported %,d rows for %,d symbols from %,d files (%,d MB) in %.2f s\n", // <br/>
+				Long.valueOf(rowCount), Integer.valueOf(symbols.size()), Integer.valueOf(files.size()),
+				Long.valueOf(bytes >> 20), Double.valueOf((finished - start) / 1e9));
+		System.out.format("Parsed %,.0f rows per second; %,.0f rows per second overall\n", // <br/>
+				Double.valueOf(rowCount / Math.max(1e-9, (parsed - start) / 1e9)),
+				Double.valueOf(rowCount / Math.max(1e-9, (finished - start) / 1e9)));
+	}
+
+	/**
+	 * Merge the imported rows for a symbol with those already stored and
+	 * write them; answer the number of rows written.
+	 */
+	private int write(String symbol, List<QuoteRows> imported) throws IOException {
+		QuoteRows rows = new QuoteRows();
+		QuoteSeries existing = store.find(symbol);
+
+		if (existing != null) {
+			QuoteSeries.View row = existing.view();
+
+			for (int i = 0, n = existing.size(); i < n; ++i) {
+				row.moveTo(i);
+				rows.add(row.getDateValue(), row.getOpen(), row.getHigh(), row.getLow(), row.getClose(),
+						row.getVolume());
+			}
+		}
+
+		for (QuoteRows chunk : imported) {
+			rows.addAll(chunk);
+		}
+
+		rows.sort();
+		store.replace(symbol, rows);
+
+		return rows.size();
+	}
+}
@@ -1,7 +1,44 @@
 package quotes;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+
 import quotes.yahoo.HistoryService;
+import quotes.yahoo.YahooProvider;
 
+/**
+ * Prints the quotes for the symbols watched on a date (by default the last
+ * trading day). The symbols are those listed in the file named by the
+ * quotes.symbols property, if set, one per line (blank lines and those
+ * beginning with # are ignored), or else a built-in list. Indices (like ^DJI)
+ * are fetched first, then the symbols held and the exchange rates needed to
+ * value them, then the rest; progress is kept in the file named by
+ * quotes.checkpoint (see {@link FetchScheduler}), and the symbols that could
+ * not be fetched are then listed in that file with .failed added, which may
+ * itself be used as quotes.symbols to try them again.
+ * <p>
+ * If the quotes.holdings property names a file of holdings (see
+ * {@link Portfolio#load(Path, String)}), their value is also shown, in the
+ * currency named by quotes.currency (CAD by default).
+ * <p>
+ * If the quotes.watch property is set to a number of seconds, the quotes
+ * are instead watched (see {@link Watcher}): each is fetched again once it
+ * is that old, and only the rows that changed are printed. Without a date,
+ * that follows the latest trading day, including today.
+ */
 public final class Main {
 
 	private static final java.lang.String[] symbols = { /* */
@@ -56,13 +93,95 @@ public final class Main {
 			"XIU.TO" // <br/>
 	};
 
-	public static void main(String[] args) {
+	/**
+	 * The number of quotes fetched at once; requests to each host are further
+	 * limited by the service.
+	 */
+	private static final int Threads = Integer.getInteger("quotes.threads", 16).intValue();
+
+	/** the seconds between refreshes, or zero to print the quotes once */
+	private static final long Watch = Long.getLong("quotes.watch", 0).longValue();
+
+	/**
+	 * Answer the file in which progress is kept, or null if none is.
+	 */
+	private static Path getCheckpoint() {
+		String file = System.getProperty("quotes.checkpoint");
+
+		if (file == null) {
+			return Paths.get(System.getProperty("user.home"), ".quotes", "checkpoint");
+		}
+
+		return file.isEmpty() ? null : Paths.get(file);
+	}
+
+	/**
+	 * Answer the holdings to be valued, or null if there are none.
+	 */
+	private static Portfolio getPortfolio() {
+		String file = System.getProperty("quotes.holdings");
+
+		if (file != null && !file.isEmpty()) {
+			try {
+				return Portfolio.load(Paths.get(file), System.getProperty("quotes.currency", "CAD"));
+			} catch (IOException | IllegalArgumentException e) {
+				System.err.format("Warning: cannot read holdings '%s': %s\n", file, e.getMessage());
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Answer the symbols watched, in the order they are shown.
+	 */
+	public static List<String> getSymbols() {
+		String file = System.getProperty("quotes.symbols");
+
+		if (file != null && !file.isEmpty()) {
+			try {
+				return Collections.unmodifiableList(readLines(Paths.get(file)));
+			} catch (IOException e) {
+				System.err.format("Warning: cannot read symbols '%s': %s\n", file, e.getMessage());
+			}
+		}
+
+		return Collections.unmodifiableList(Arrays.asList(symbols));
+	}
+
+	public static void main(String[] args) throws IOException {
+		QuoteProvider provider = makeProvider(System.getProperty("quotes.providers", "yahoo"));
+		Portfolio portfolio = getPortfolio();
+		List<String> symbols = getSymbols();
+
+		if (portfolio != null) {
+			// add what is needed to value the holdings
+			Set<String> listed = new LinkedHashSet<>(symbols);
+
+			for (int i = 0; i < portfolio.getPositionCount(); ++i) {
+				listed.add(portfolio.getSymbol(i));
+			}
+
+			listed.addAll(portfolio.getRateSymbols());
+			symbols = new ArrayList<>(listed);
+		}
+
+		ToIntFunction<String> priority = symbol -> symbol.startsWith("^") ? 0
+				: portfolio != null && portfolio.contains(symbol) ? 1 : 2;
+		int threads = Math.max(1, Math.min(Threads, symbols.size()));
 		Date date;
 
+		if (Watch > 0) {
+			new Watcher(provider, symbols, priority, threads, Exchanges.calendarOfAny(symbols), Watch * 1000, // <br/>
+					portfolio).run(args.length > 0 ? new Date(args[0]) : null);
+			return;
+		}
+
 		if (args.length > 0) {
 			date = new Date(args[0]);
 		} else {
-			date = Date.yesterday();
+			// the last day on which there were quotes for any of the symbols
+			date = Date.fromValue(Exchanges.calendarOfAny(symbols).previous(Date.today().value()));
 		}
 
 		System.out.format("Quotes for %s\n", date);
@@ -70,13 +189,93 @@ public final class Main {
 		System.out.println("Symbol        Price         Volume");
 		System.out.println("------        -----         ------");
 
-		for (String symbol : symbols) {
-			printQuote(symbol, date);
+		try (FetchScheduler scheduler = new FetchScheduler(provider, date, threads, getCheckpoint())) {
+			List<Future<Quote>> quotes = scheduler.fetch(symbols, priority);
+
+			// print in order, each as soon as it and those before it are ready
+			for (int i = 0; i < symbols.size(); ++i) {
+				Quote quote = printQuote(symbols.get(i), quotes.get(i));
+
+				if (portfolio != null) {
+					portfolio.update(symbols.get(i), quote);
+				}
+			}
 		}
+
+		if (portfolio != null) {
+			printPortfolio(portfolio);
+		}
+
+		if (Boolean.getBoolean("quotes.stats")) {
+			System.out.println();
+			System.out.println(HistoryService.getStatistics());
+		}
+	}
+
+	/**
+	 * Answer the provider for a list of sources, to be tried in order; each
+	 * is either "yahoo" or "dir:" followed by a folder of history files.
+	 */
+	static QuoteProvider makeProvider(String sources) {
+		List<QuoteProvider> providers = new ArrayList<>();
+
+		for (String source : sources.split(",")) {
+			source = source.trim();
+
+			if (source.equals("yahoo")) {
+				providers.add(new YahooProvider());
+			} else if (source.startsWith("dir:")) {
+				providers.add(new FileProvider(Paths.get(source.substring(4))));
+			} else {
+				throw new IllegalArgumentException("Unknown quote source: " + source);
+			}
+		}
+
+		return providers.size() == 1 ? providers.get(0) : new FailoverProvider(providers);
 	}
 
-	private static void printQuote(String symbol, Date date) {
-		Quote quote = HistoryService.getQuote(symbol, date);
+	private static void printPortfolio(Portfolio portfolio) {
+		System.out.println();
+		System.out.format("Holding       Quantity      Price Currency      Value %s\n", portfolio.getBase());
+		System.out.println("-------       --------      ----- --------      ---------");
+
+		for (int i = 0; i < portfolio.getPositionCount(); ++i) {
+			double price = portfolio.getPrice(i);
+			double value = portfolio.getValue(i);
+
+			System.out.format("%-8s %,13.2f %10s %-8s %14s\n", // <br/>
+					portfolio.getSymbol(i), Double.valueOf(portfolio.getQuantity(i)),
+					Double.isNaN(price) ? "-.--" : String.format("%,.2f", Double.valueOf(price)),
+					portfolio.getCurrency(i),
+					Double.isNaN(value) ? "-.--" : String.format("%,.2f", Double.valueOf(value)));
+		}
+
+		System.out.format("%-8s %48s%s\n", // <br/>
+				"Total", String.format("%,.2f", Double.valueOf(portfolio.getTotal())),
+				portfolio.isComplete() ? "" : " (incomplete)");
+	}
+
+	/**
+	 * Print the quote for a symbol once it is ready, and answer it (or null).
+	 */
+	private static Quote printQuote(String symbol, Future<Quote> future) {
+		Quote quote;
+
+		for (;;) {
+			try {
+				quote = future.get();
+				break;
+			} catch (InterruptedException e) {
+				// ignore
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				String reason = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+
+				System.out.format("%-8s %10s  (%s)\n", // <br/>
+						symbol, "-.--", reason);
+				return null;
+			}
+		}
 
 		if (quote == null) {
 			System.out.format("%-8s %10s\n", // <br/>
@@ -88,6 +287,30 @@ public final class Main {
 					Long.valueOf(quote.getVolume()));
 
 		}
+
+		return quote;
+	}
+
+	/**
+	 * Read the lines of a file, trimmed, except those that are blank or begin
+	 * with #.
+	 */
+	private static List<String> readLines(Path file) throws IOException {
+		List<String> lines = new ArrayList<>();
+
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					lines.add(line);
+				}
+			}
+		}
+
+		return lines;
 	}
 
 	private Main() {
@@ -0,0 +1,327 @@
+package quotes;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Values a set of holdings in a base currency. Positions are priced in the
+ * currency of their exchange and converted with exchange rates quoted like
+ * any other symbol (USDCAD=X is the price of a US dollar in Canadian
+ * dollars). The value held in each currency, and the total in the base
+ * currency, are kept up to date as each price or rate changes, without
+ * adding up the whole book again; it is added up afresh every so often (and
+ * on request, see {@link #recompute()}) so that rounding errors don't
+ * accumulate.
+ */
+public final class Portfolio {
+
+	/**
+	 * Answer the currency in which a symbol is quoted, judging by its
+	 * exchange (see {@link Exchanges#exchangeOf(String)}).
+	 */
+	public static String currencyOf(String symbol) {
+		return Exchanges.exchangeOf(symbol).equals("US") ? "USD" : "CAD";
+	}
+
+	/**
+	 * Read holdings from a file with one position per line: a symbol,
+	 * optionally followed by the quantity held (zero by default) and the
+	 * currency in which it is quoted (see {@link #currencyOf(String)}),
+	 * separated by spaces or commas. Blank lines and those beginning with #
+	 * are ignored, and lines for the same symbol are added together.
+	 */
+	public static Portfolio load(Path file, String base) throws IOException {
+		Portfolio portfolio = new Portfolio(base);
+
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+
+				String[] fields = line.split("[\\s,]+");
+				double quantity = fields.length > 1 ? Double.parseDouble(fields[1]) : 0;
+				String currency = fields.length > 2 ? fields[2] : currencyOf(fields[0]);
+
+				portfolio.add(fields[0], quantity, currency);
+			}
+		}
+
+		return portfolio;
+	}
+
+	/** the number of changes after which the totals are added up afresh */
+	private static final int RECOMPUTE_INTERVAL = 1024;
+
+	private static double valueOf(double amount) {
+		return Double.isNaN(amount) ? 0 : amount;
+	}
+
+	private final String base;
+
+	/** the number of changes made to the totals since they were added up */
+	private int changes;
+
+	/** the index of the currency of each position */
+	private int[] currencies;
+
+	private final List<String> currencyNames;
+
+	/** the index of each position, by symbol */
+	private final Map<String, Integer> positions;
+
+	/** NaN where there is no price */
+	private double[] prices;
+
+	private double[] quantities;
+
+	/** the index of each currency, by the symbol of its rate, in the order added */
+	private final Map<String, Integer> rateIndices;
+
+	/** the price of each currency in the base currency; NaN if not known */
+	private double[] rates;
+
+	private final List<String> symbols;
+
+	/** the base value of the positions for which there are prices and rates */
+	private double total;
+
+	/** the value of the positions in each currency, in that currency */
+	private double[] totals;
+
+	/** the number of positions without a price */
+	private int unpriced;
+
+	public Portfolio(String base) {
+		super();
+		this.base = base;
+		this.changes = 0;
+		this.currencies = new int[0];
+		this.currencyNames = new ArrayList<>();
+		this.positions = new HashMap<>();
+		this.prices = new double[0];
+		this.quantities = new double[0];
+		this.rateIndices = new LinkedHashMap<>();
+		this.rates = new double[0];
+		this.symbols = new ArrayList<>();
+		this.total = 0;
+		this.totals = new double[0];
+		this.unpriced = 0;
+	}
+
+	/**
+	 * Add quantity of a symbol quoted in currency.
+	 */
+	public void add(String symbol, double quantity, String currency) {
+		Integer position = positions.get(symbol);
+
+		if (position != null) {
+			int index = position.intValue();
+
+			if (!currencyNames.get(currencies[index]).equals(currency)) {
+				throw new IllegalArgumentException("Inconsistent currency for " + symbol + ": " + currency);
+			}
+
+			setQuantity(index, quantities[index] + quantity);
+			return;
+		}
+
+		int index = symbols.size();
+
+		positions.put(symbol, Integer.valueOf(index));
+		symbols.add(symbol);
+		currencies = Arrays.copyOf(currencies, index + 1);
+		currencies[index] = addCurrency(currency);
+		prices = Arrays.copyOf(prices, index + 1);
+		prices[index] = Double.NaN;
+		quantities = Arrays.copyOf(quantities, index + 1);
+		quantities[index] = quantity;
+		unpriced += 1;
+	}
+
+	private int addCurrency(String currency) {
+		int index = currencyNames.indexOf(currency);
+
+		if (index < 0) {
+			index = currencyNames.size();
+			currencyNames.add(currency);
+			rates = Arrays.copyOf(rates, index + 1);
+			totals = Arrays.copyOf(totals, index + 1);
+
+			if (currency.equals(base)) {
+				rates[index] = 1;
+			} else {
+				rates[index] = Double.NaN;
+				rateIndices.put(currency + base + "=X", Integer.valueOf(index));
+			}
+		}
+
+		return index;
+	}
+
+	/**
+	 * Note that the totals have been changed, adding them up afresh once
+	 * enough changes have been made.
+	 */
+	private void changed() {
+		if (++changes >= RECOMPUTE_INTERVAL) {
+			recompute();
+		}
+	}
+
+	/**
+	 * Answer whether quotes for symbol are needed to value the holdings.
+	 */
+	public boolean contains(String symbol) {
+		return positions.containsKey(symbol) || rateIndices.containsKey(symbol);
+	}
+
+	public String getBase() {
+		return base;
+	}
+
+	public String getCurrency(int index) {
+		return currencyNames.get(currencies[index]);
+	}
+
+	public int getPositionCount() {
+		return symbols.size();
+	}
+
+	/**
+	 * Answer the latest price of a position, in its currency, or NaN if
+	 * there is none.
+	 */
+	public double getPrice(int index) {
+		return prices[index];
+	}
+
+	public double getQuantity(int index) {
+		return quantities[index];
+	}
+
+	/**
+	 * Answer the symbols of the exchange rates needed, in the order their
+	 * currencies were first held.
+	 */
+	public List<String> getRateSymbols() {
+		return new ArrayList<>(rateIndices.keySet());
+	}
+
+	public String getSymbol(int index) {
+		return symbols.get(index);
+	}
+
+	/**
+	 * Answer the value in the base currency of the positions that have
+	 * prices and rates (see {@link #isComplete()}).
+	 */
+	public double getTotal() {
+		return total;
+	}
+
+	/**
+	 * Answer the value of a position in the base currency, or NaN if its
+	 * price or exchange rate is unknown.
+	 */
+	public double getValue(int index) {
+		return quantities[index] * prices[index] * rates[currencies[index]];
+	}
+
+	/**
+	 * Answer whether every position has a price and an exchange rate.
+	 */
+	public boolean isComplete() {
+		if (unpriced != 0) {
+			return false;
+		}
+
+		for (int i = 0; i < rates.length; ++i) {
+			if (Double.isNaN(rates[i]) && totals[i] != 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Add up the value held in each currency, and the total, afresh.
+	 */
+	public void recompute() {
+		Arrays.fill(totals, 0);
+
+		for (int i = 0; i < quantities.length; ++i) {
+			totals[currencies[i]] += quantities[i] * valueOf(prices[i]);
+		}
+
+		total = 0;
+
+		for (int i = 0; i < totals.length; ++i) {
+			total += totals[i] * valueOf(rates[i]);
+		}
+
+		changes = 0;
+	}
+
+	private void setQuantity(int index, double quantity) {
+		double delta = (quantity - quantities[index]) * valueOf(prices[index]);
+		int currency = currencies[index];
+
+		quantities[index] = quantity;
+		totals[currency] += delta;
+		total += delta * valueOf(rates[currency]);
+		changed();
+	}
+
+	/**
+	 * Note the latest quote for a symbol, which may be null if there is none;
+	 * answer whether it changed the value of the holdings.
+	 */
+	public boolean update(String symbol, Quote quote) {
+		double price = quote != null ? quote.getPrice() : Double.NaN;
+		double before = total;
+		Integer position = positions.get(symbol);
+
+		if (position != null) {
+			int index = position.intValue();
+			double old = prices[index];
+
+			if (Double.compare(old, price) != 0) {
+				double delta = quantities[index] * (valueOf(price) - valueOf(old));
+				int currency = currencies[index];
+
+				prices[index] = price;
+				totals[currency] += delta;
+				total += delta * valueOf(rates[currency]);
+				unpriced += (Double.isNaN(price) ? 1 : 0) - (Double.isNaN(old) ? 1 : 0);
+				changed();
+			}
+		}
+
+		Integer rate = rateIndices.get(symbol);
+
+		if (rate != null) {
+			int currency = rate.intValue();
+
+			total += totals[currency] * (valueOf(price) - valueOf(rates[currency]));
+			rates[currency] = price;
+			changed();
+		}
+
+		return total != before;
+	}
+}
@@ -0,0 +1,224 @@
+package quotes;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Remembers quotes for past dates, which never change. Recently used entries
+ * are kept in memory and all entries are kept in a store on disk that
+ * survives restarts. Concurrent requests for the same quote share a single
+ * fetch. Finding that there is no quote (for a holiday or an unknown symbol)
+ * is remembered too, but only for a limited time.
+ */
+public final class QuoteCache {
+
+	static final class Entry {
+
+		final long expires;
+
+		final Quote quote;
+
+		Entry(Quote quote, long expires) {
+			super();
+			this.expires = expires;
+			this.quote = quote;
+		}
+
+		boolean isExpired(long now) {
+			return expires <= now;
+		}
+	}
+
+	public interface Source {
+
+		/**
+		 * Answer the quote for a symbol on a date, or null if there is none.
+		 */
+		Quote fetch(String symbol, Date date) throws IOException;
+
+	}
+
+	private static final long NEVER = Long.MAX_VALUE;
+
+	private static Entry join(CompletableFuture<Entry> future) throws IOException {
+		for (;;) {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				// ignore
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+
+				throw new IOException(cause);
+			}
+		}
+	}
+
+	private static String keyOf(String symbol, Date date) {
+		return symbol + ' ' + date.value();
+	}
+
+	/**
+	 * Open a cache backed by the given file, or by nothing if file is null or
+	 * cannot be opened.
+	 */
+	public static QuoteCache open(Path file, int memoryEntries, long negativeMillis) {
+		QuoteStore store = null;
+
+		if (file != null) {
+			try {
+				store = QuoteStore.open(file);
+
+				if (store.isReadOnly()) {
+					System.err.format("Warning: quote cache '%s' is being rewritten by another process; "
+							+ "not adding to it\n", file);
+				}
+			} catch (IOException e) {
+				System.err.format("Warning: cannot open quote cache '%s': %s\n", file, e.getMessage());
+			}
+		}
+
+		return new QuoteCache(store, memoryEntries, negativeMillis);
+	}
+
+	private final Map<String, CompletableFuture<Entry>> fetching;
+
+	private final Map<String, Entry> memory;
+
+	private final long negativeMillis;
+
+	private volatile QuoteStore store;
+
+	private QuoteCache(QuoteStore store, int memoryEntries, long negativeMillis) {
+		super();
+		this.fetching = new ConcurrentHashMap<>();
+		this.memory = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, QuoteCache.Entry> eldest) {
+				return size() > memoryEntries;
+			}
+
+		};
+		this.negativeMillis = negativeMillis;
+		this.store = store;
+	}
+
+	/**
+	 * Answer whether get would answer without asking the source.
+	 */
+	public boolean contains(String symbol, Date date) {
+		return date.compareTo(Date.today()) < 0 && lookup(keyOf(symbol, date)) != null;
+	}
+
+	/**
+	 * Answer the quote for a symbol on a date, or null if there is none,
+	 * asking the source only if necessary.
+	 */
+	public Quote get(String symbol, Date date, Source source) throws IOException {
+		if (date.compareTo(Date.today()) >= 0) {
+			// the latest quote may yet change
+			return source.fetch(symbol, date);
+		}
+
+		String key = keyOf(symbol, date);
+		Entry entry = lookup(key);
+
+		if (entry != null) {
+			return entry.quote;
+		}
+
+		CompletableFuture<Entry> future = new CompletableFuture<>();
+		CompletableFuture<Entry> existing = fetching.putIfAbsent(key, future);
+
+		if (existing != null) {
+			return join(existing).quote;
+		}
+
+		try {
+			// it may have arrived while we weren't looking
+			entry = lookup(key);
+
+			if (entry == null) {
+				entry = store(key, source.fetch(symbol, date));
+			}
+
+			future.complete(entry);
+
+			return entry.quote;
+		} catch (IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			fetching.remove(key);
+		}
+	}
+
+	private Entry lookup(String key) {
+		long now = System.currentTimeMillis();
+		Entry entry;
+
+		synchronized (memory) {
+			entry = memory.get(key);
+		}
+
+		if (entry == null) {
+			QuoteStore disk = store;
+
+			if (disk != null) {
+				entry = disk.read(key);
+
+				if (entry != null) {
+					synchronized (memory) {
+						memory.put(key, entry);
+					}
+				}
+			}
+		}
+
+		return entry == null || entry.isExpired(now) ? null : entry;
+	}
+
+	/**
+	 * Remember the quote for a symbol on a date, or that there is none if
+	 * quote is null.
+	 */
+	public void put(String symbol, Date date, Quote quote) {
+		if (date.compareTo(Date.today()) < 0) {
+			store(keyOf(symbol, date), quote);
+		}
+	}
+
+	private Entry store(String key, Quote quote) {
+		long expires = quote != null ? NEVER : System.currentTimeMillis() + negativeMillis;
+		Entry entry = new Entry(quote, expires);
+
+		synchronized (memory) {
+			memory.put(key, entry);
+		}
+
+		QuoteStore disk = store;
+
+		if (disk != null) {
+			try {
+				disk.write(key, entry);
+			} catch (IOException e) {
+				System.err.format("Warning: cannot write quote cache: %s\n", e.getMessage());
+				store = null;
+			}
+		}
+
+		return entry;
+	}
+}
@@ -0,0 +1,26 @@
+package quotes;
+
+import java.io.IOException;
+
+/**
+ * A source of daily quotes.
+ */
+public interface QuoteProvider {
+
+	/**
+	 * Answer the quote for a symbol on a date, or null if this provider has
+	 * none; an exception means the provider could not be asked.
+	 */
+	Quote getQuote(String symbol, Date date) throws IOException;
+
+	/**
+	 * Answer whether the quote for a symbol on a date can be answered
+	 * without asking another host, for example from a cache, and won't
+	 * change. A provider that would leave the quote to another, having none
+	 * of its own, answers false.
+	 */
+	default boolean isLocal(String symbol, Date date) {
+		return false;
+	}
+
+}
@@ -0,0 +1,156 @@
+package quotes;
+
+import java.util.Arrays;
+
+/**
+ * A growing batch of daily rows for one symbol, kept as one array per field,
+ * in the order they were added until sorted.
+ */
+public final class QuoteRows {
+
+	double[] closes;
+
+	int count;
+
+	/** in packed form (see {@link Date#value()}) */
+	int[] dates;
+
+	double[] highs;
+
+	double[] lows;
+
+	double[] opens;
+
+	long[] volumes;
+
+	public QuoteRows() {
+		super();
+		this.closes = new double[64];
+		this.count = 0;
+		this.dates = new int[64];
+		this.highs = new double[64];
+		this.lows = new double[64];
+		this.opens = new double[64];
+		this.volumes = new long[64];
+	}
+
+	public void add(int date, double open, double high, double low, double close, long volume) {
+		if (count == dates.length) {
+			grow(count + 1);
+		}
+
+		dates[count] = date;
+		opens[count] = open;
+		highs[count] = high;
+		lows[count] = low;
+		closes[count] = close;
+		volumes[count] = volume;
+		count += 1;
+	}
+
+	/**
+	 * Add all the rows of that, after those already here.
+	 */
+	public void addAll(QuoteRows that) {
+		int total = count + that.count;
+
+		if (total > dates.length) {
+			grow(total);
+		}
+
+		System.arraycopy(that.dates, 0, dates, count, that.count);
+		System.arraycopy(that.opens, 0, opens, count, that.count);
+		System.arraycopy(that.highs, 0, highs, count, that.count);
+		System.arraycopy(that.lows, 0, lows, count, that.count);
+		System.arraycopy(that.closes, 0, closes, count, that.count);
+		System.arraycopy(that.volumes, 0, volumes, count, that.count);
+		count = total;
+	}
+
+	public double getClose(int index) {
+		return closes[index];
+	}
+
+	public int getDateValue(int index) {
+		return dates[index];
+	}
+
+	public double getHigh(int index) {
+		return highs[index];
+	}
+
+	public double getLow(int index) {
+		return lows[index];
+	}
+
+	public double getOpen(int index) {
+		return opens[index];
+	}
+
+	public long getVolume(int index) {
+		return volumes[index];
+	}
+
+	private void grow(int minimum) {
+		int capacity = Math.max(minimum, dates.length * 2);
+
+		closes = Arrays.copyOf(closes, capacity);
+		dates = Arrays.copyOf(dates, capacity);
+		highs = Arrays.copyOf(highs, capacity);
+		lows = Arrays.copyOf(lows, capacity);
+		opens = Arrays.copyOf(opens, capacity);
+		volumes = Arrays.copyOf(volumes, capacity);
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Sort the rows by date, keeping only the one added last for each date.
+	 */
+	public void sort() {
+		long[] keys = new long[count];
+		boolean sorted = true;
+
+		for (int i = 0; i < count; ++i) {
+			keys[i] = ((long) dates[i] << 32) | i;
+
+			if (i > 0 && dates[i - 1] >= dates[i]) {
+				sorted = false;
+			}
+		}
+
+		if (sorted) {
+			return;
+		}
+
+		Arrays.sort(keys);
+
+		int[] oldDates = Arrays.copyOf(dates, count);
+		double[] oldOpens = Arrays.copyOf(opens, count);
+		double[] oldHighs = Arrays.copyOf(highs, count);
+		double[] oldLows = Arrays.copyOf(lows, count);
+		double[] oldCloses = Arrays.copyOf(closes, count);
+		long[] oldVolumes = Arrays.copyOf(volumes, count);
+		int kept = 0;
+
+		for (int i = 0; i < count; ++i) {
+			int from = (int) keys[i];
+
+			if (kept > 0 && dates[kept - 1] == oldDates[from]) {
+				kept -= 1;
+			}
+
+			dates[kept] = oldDates[from];
+			opens[kept] = oldOpens[from];
+			highs[kept] = oldHighs[from];
+			lows[kept] = oldLows[from];
+			closes[kept] = oldCloses[from];
+			volumes[kept] = oldVolumes[from];
+			kept += 1;
+		}
+
+		count = kept;
+	}
+}
@@ -0,0 +1,609 @@
+package quotes;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The daily history of one symbol, in ascending order of date, kept in a
+ * memory-mapped file as one column per field so that none of it is on the
+ * heap. The columns have room for capacity rows; when they are full they are
+ * copied, with twice the room, to a part of the file not in use (growing it
+ * if necessary) and only then does the header point to them. Replacing all
+ * the rows lays them out the same way. The file is
+ * never replaced while it is mapped, which Windows does not allow, so it may
+ * hold up to twice the room in use.
+ *
+ * <pre>
+ * int    magic, version, count, capacity
+ * long   base              (the offset of the columns)
+ * long   sequence          (odd while the last row is being replaced)
+ * at base:
+ * int    dates[capacity]   (packed, see {@link Date#value()})
+ * double opens[capacity], highs[capacity], lows[capacity], closes[capacity]
+ * long   volumes[capacity]
+ * </pre>
+ *
+ * There may be one thread appending while others read, in this process or
+ * another. Readers work with a snapshot of the columns and their count,
+ * taken once per call, and copy a row only while the sequence is even and
+ * unchanged, so they never see a replacement half written.
+ */
+public final class QuoteSeries {
+
+	/**
+	 * The columns in use, and the number of rows in them.
+	 */
+	private static final class Columns {
+
+		/** the offset of the columns in the file */
+		final long base;
+
+		final MappedByteBuffer buffer;
+
+		final int capacity;
+
+		final DoubleBuffer closes;
+
+		final int count;
+
+		final IntBuffer dates;
+
+		final DoubleBuffer highs;
+
+		final DoubleBuffer lows;
+
+		final DoubleBuffer opens;
+
+		final LongBuffer volumes;
+
+		private Columns(Columns that, int count) {
+			super();
+			this.base = that.base;
+			this.buffer = that.buffer;
+			this.capacity = that.capacity;
+			this.closes = that.closes;
+			this.count = count;
+			this.dates = that.dates;
+			this.highs = that.highs;
+			this.lows = that.lows;
+			this.opens = that.opens;
+			this.volumes = that.volumes;
+		}
+
+		Columns(MappedByteBuffer buffer, long base, int capacity, int count) {
+			super();
+			this.base = base;
+			this.buffer = buffer;
+			this.capacity = capacity;
+			this.closes = column(buffer, base, 4, capacity).asDoubleBuffer();
+			this.count = count;
+			this.dates = column(buffer, base, 0, capacity).asIntBuffer();
+			this.highs = column(buffer, base, 2, capacity).asDoubleBuffer();
+			this.lows = column(buffer, base, 3, capacity).asDoubleBuffer();
+			this.opens = column(buffer, base, 1, capacity).asDoubleBuffer();
+			this.volumes = column(buffer, base, 5, capacity).asLongBuffer();
+		}
+
+		/**
+		 * Answer whether the header of the file describes these columns.
+		 */
+		boolean isCurrent() {
+			return buffer.getInt(COUNT_OFFSET) == count && buffer.getInt(CAPACITY_OFFSET) == capacity
+					&& buffer.getLong(BASE_OFFSET) == base;
+		}
+
+		/**
+		 * Answer these columns with count rows.
+		 */
+		Columns withCount(int count) {
+			return new Columns(this, count);
+		}
+	}
+
+	/**
+	 * Fills the columns of a new layout.
+	 */
+	private interface Filler {
+
+		void fill(Columns target);
+
+	}
+
+	/**
+	 * A reusable view of one row.
+	 */
+	public final class View {
+
+		private double close;
+
+		private int date;
+
+		private double high;
+
+		private int index;
+
+		private double low;
+
+		private double open;
+
+		private long volume;
+
+		View() {
+			super();
+			this.close = 0;
+			this.date = 0;
+			this.high = 0;
+			this.index = -1;
+			this.low = 0;
+			this.open = 0;
+			this.volume = 0;
+		}
+
+		public double getClose() {
+			return close;
+		}
+
+		public Date getDate() {
+			return Date.fromValue(getDateValue());
+		}
+
+		public int getDateValue() {
+			return date;
+		}
+
+		public double getHigh() {
+			return high;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public double getLow() {
+			return low;
+		}
+
+		public double getOpen() {
+			return open;
+		}
+
+		public double getPrice() {
+			return getClose();
+		}
+
+		public long getVolume() {
+			return volume;
+		}
+
+		View moveTo(Columns columns, int index) {
+			if (!(0 <= index && index < columns.count)) {
+				throw new IndexOutOfBoundsException("Bad index: " + index);
+			}
+
+			MappedByteBuffer buffer = columns.buffer;
+			long sequence;
+
+			// copy the row again if it was being replaced meanwhile
+			do {
+				while (((sequence = buffer.getLong(SEQUENCE_OFFSET)) & 1) != 0) {
+					Thread.yield();
+				}
+
+				this.close = columns.closes.get(index);
+				this.date = columns.dates.get(index);
+				this.high = columns.highs.get(index);
+				this.low = columns.lows.get(index);
+				this.open = columns.opens.get(index);
+				this.volume = columns.volumes.get(index);
+			} while (buffer.getLong(SEQUENCE_OFFSET) != sequence);
+
+			this.index = index;
+
+			return this;
+		}
+
+		/**
+		 * Move this view to the row at index and answer it.
+		 */
+		public View moveTo(int index) {
+			return moveTo(current(), index);
+		}
+
+		public Quote toQuote() {
+			return new Quote(getClose(), getVolume());
+		}
+	}
+
+	public interface Visitor {
+
+		void visit(View row);
+
+	}
+
+	/** the offset in the header of the base of the columns */
+	private static final int BASE_OFFSET = 16;
+
+	/** the offset in the header of the capacity */
+	private static final int CAPACITY_OFFSET = 12;
+
+	/** the offset in the header of the count of rows */
+	private static final int COUNT_OFFSET = 8;
+
+	private static final int HEADER_SIZE = 32;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private static final int MAGIC = 0x51534552; // "QSER"
+
+	/** the bytes used by each row, across all columns */
+	private static final int ROW_SIZE = 4 + 8 + 8 + 8 + 8 + 8;
+
+	/** the offset in the header of the sequence */
+	private static final int SEQUENCE_OFFSET = 24;
+
+	private static final int VERSION = 1;
+
+	/** the offset in the header of the version */
+	private static final int VERSION_OFFSET = 4;
+
+	private static ByteBuffer column(MappedByteBuffer buffer, long base, int column, int capacity) {
+		ByteBuffer slice = buffer.duplicate();
+		int start = (int) base + columnOffset(column, capacity);
+
+		slice.position(start);
+		slice.limit(start + capacity * (column == 0 ? 4 : 8));
+
+		return slice.slice();
+	}
+
+	/**
+	 * Answer the offset of a column from the base of the columns.
+	 */
+	private static int columnOffset(int column, int capacity) {
+		// dates are 4 bytes each, all the other columns 8
+		return column == 0 ? 0 : capacity * (4 + (column - 1) * 8);
+	}
+
+	/**
+	 * Copy the rows of source to target, leaving both as they were.
+	 */
+	private static void copy(Columns source, Columns target) {
+		int count = source.count;
+
+		target.dates.duplicate().put(head(source.dates.duplicate(), count));
+		target.opens.duplicate().put(head(source.opens.duplicate(), count));
+		target.highs.duplicate().put(head(source.highs.duplicate(), count));
+		target.lows.duplicate().put(head(source.lows.duplicate(), count));
+		target.closes.duplicate().put(head(source.closes.duplicate(), count));
+		target.volumes.duplicate().put(head(source.volumes.duplicate(), count));
+	}
+
+	/**
+	 * Create an empty file with room for capacity rows, and put it in place
+	 * of any existing file.
+	 */
+	private static void create(Path file, int capacity) throws IOException {
+		Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), "series", ".tmp");
+
+		try {
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * ROW_SIZE);
+
+				buffer.putInt(MAGIC);
+				buffer.putInt(VERSION);
+				buffer.putInt(0);
+				buffer.putInt(capacity);
+				buffer.putLong(HEADER_SIZE);
+				buffer.putLong(0);
+				buffer.force();
+			}
+
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * Limit buffer to its first count elements and answer it.
+	 */
+	private static <T extends Buffer> T head(T buffer, int count) {
+		buffer.limit(count);
+
+		return buffer;
+	}
+
+	/**
+	 * Open the series in the given file, creating it if necessary.
+	 */
+	public static QuoteSeries open(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			create(file, INITIAL_CAPACITY);
+		}
+
+		QuoteSeries series = new QuoteSeries(file);
+
+		series.columns = series.map();
+
+		return series;
+	}
+
+	/**
+	 * Answer the index of the first row of columns whose date is not less
+	 * than value, or if inclusive is false, the first row whose date is
+	 * greater than value.
+	 */
+	private static int search(Columns columns, int value, boolean inclusive) {
+		IntBuffer dates = columns.dates;
+		int low = 0;
+		int high = columns.count;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			int date = dates.get(middle);
+
+			if (date < value || (!inclusive && date == value)) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	/** the latest snapshot of the columns */
+	private volatile Columns columns;
+
+	private final Path file;
+
+	private QuoteSeries(Path file) {
+		super();
+		this.columns = null;
+		this.file = file;
+	}
+
+	/**
+	 * Add a row for a date after all others, or replace the last row if it
+	 * is for the same date. A replacement is bracketed by two steps of the
+	 * sequence, the first making it odd (even if an earlier writer stopped
+	 * half way and left it odd).
+	 */
+	public synchronized void append(Date date, double open, double high, double low, double close, long volume)
+			throws IOException {
+		Columns target = current();
+		int value = date.value();
+		int index = target.count;
+
+		if (index > 0) {
+			int last = target.dates.get(index - 1);
+
+			if (value < last) {
+				throw new IllegalArgumentException("Date out of order: " + date);
+			}
+
+			if (value == last) {
+				index -= 1;
+			}
+		}
+
+		if (index == target.capacity) {
+			Columns source = target;
+
+			target = relayout(index * 2, index, fresh -> copy(source, fresh));
+		}
+
+		boolean replacing = index < target.count;
+		MappedByteBuffer buffer = target.buffer;
+		long sequence = buffer.getLong(SEQUENCE_OFFSET) | 1;
+
+		if (replacing) {
+			buffer.putLong(SEQUENCE_OFFSET, sequence);
+		}
+
+		target.dates.put(index, value);
+		target.opens.put(index, open);
+		target.highs.put(index, high);
+		target.lows.put(index, low);
+		target.closes.put(index, close);
+		target.volumes.put(index, volume);
+
+		if (replacing) {
+			buffer.putLong(SEQUENCE_OFFSET, sequence + 1);
+		} else {
+			// publish the row only once it is complete
+			buffer.putInt(COUNT_OFFSET, index + 1);
+			columns = target.withCount(index + 1);
+		}
+	}
+
+	/**
+	 * Answer the latest snapshot of the columns, following any change made
+	 * to the file by another process.
+	 */
+	private Columns current() {
+		Columns current = columns;
+
+		return current.isCurrent() ? current : refresh();
+	}
+
+	/**
+	 * Write any changes to the file.
+	 */
+	public synchronized void flush() {
+		columns.buffer.force();
+	}
+
+	/**
+	 * Visit the rows from first to last, inclusive, with a single view.
+	 */
+	public void forEach(Date first, Date last, Visitor visitor) {
+		Columns current = current();
+		View row = new View();
+
+		for (int index = search(current, first.value(), true), end = search(current, last.value(), false); // <br/>
+				index < end; ++index) {
+			visitor.visit(row.moveTo(current, index));
+		}
+	}
+
+	/**
+	 * Answer the index of the row for date, or (-(insertion point) - 1) if
+	 * there is none, like {@link java.util.Arrays#binarySearch(int[], int)}.
+	 */
+	public int indexOf(Date date) {
+		Columns current = current();
+		int value = date.value();
+		int index = search(current, value, true);
+
+		return index < current.count && current.dates.get(index) == value ? index : -index - 1;
+	}
+
+	/**
+	 * Map the whole file and answer the columns described by its header.
+	 */
+	private Columns map() throws IOException {
+		Columns mapped = readColumns(map(0));
+
+		if (mapped == null) {
+			throw new IOException("Quote series is damaged: " + file);
+		}
+
+		return mapped;
+	}
+
+	/**
+	 * Map the whole file, first growing it to at least size bytes.
+	 */
+	private MappedByteBuffer map(long size) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			if (channel.size() < size) {
+				// write past the end rather than set the length, which Windows
+				// refuses while the file is mapped
+				channel.write(ByteBuffer.allocate(1), size - 1);
+			}
+
+			return channel.map(MapMode.READ_WRITE, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Answer the columns described by the header of a mapping of the file,
+	 * or null if they lie beyond it.
+	 */
+	private Columns readColumns(MappedByteBuffer buffer) throws IOException {
+		if (!(buffer.capacity() >= HEADER_SIZE && buffer.getInt(0) == MAGIC
+				&& buffer.getInt(VERSION_OFFSET) == VERSION)) {
+			throw new IOException("Not a quote series: " + file);
+		}
+
+		long base = buffer.getLong(BASE_OFFSET);
+		int capacity = buffer.getInt(CAPACITY_OFFSET);
+		int rows = buffer.getInt(COUNT_OFFSET);
+
+		if (!(0 <= rows && rows <= capacity && HEADER_SIZE <= base)) {
+			throw new IOException("Quote series is damaged: " + file);
+		}
+
+		return base + (long) capacity * ROW_SIZE <= buffer.capacity() ? new Columns(buffer, base, capacity, rows) : null;
+	}
+
+	/**
+	 * Answer the columns as the header now describes them, mapping the file
+	 * again if it has grown. If the file can no longer be read, answer the
+	 * columns as they were.
+	 */
+	private synchronized Columns refresh() {
+		Columns latest = columns;
+
+		try {
+			// read the header again if another process changes it meanwhile
+			while (!latest.isCurrent()) {
+				Columns next = readColumns(latest.buffer);
+
+				latest = next != null ? next : map();
+			}
+		} catch (IOException e) {
+			return columns;
+		}
+
+		columns = latest;
+
+		return latest;
+	}
+
+	/**
+	 * Lay out columns with room for capacity rows in a part of the file not
+	 * in use, growing it if necessary, have filler set the first count rows,
+	 * and only then point the header to them; answer them. Readers see the
+	 * old columns until the switch.
+	 */
+	private Columns relayout(int capacity, int count, Filler filler) throws IOException {
+		Columns current = current();
+		long size = (long) capacity * ROW_SIZE;
+		// before the columns in use if there's room (or they hold no rows to
+		// be read meanwhile), else after them
+		long base = HEADER_SIZE + size <= current.base || current.count == 0 ? HEADER_SIZE
+				: current.base + (long) current.capacity * ROW_SIZE;
+		MappedByteBuffer buffer = current.buffer;
+
+		if (base + size > buffer.capacity()) {
+			buffer = map(base + size);
+		}
+
+		Columns target = new Columns(buffer, base, capacity, count);
+
+		filler.fill(target);
+		buffer.force();
+
+		buffer.putLong(BASE_OFFSET, base);
+		buffer.putInt(CAPACITY_OFFSET, capacity);
+		buffer.putInt(COUNT_OFFSET, count);
+		buffer.force();
+
+		columns = target;
+
+		return target;
+	}
+
+	/**
+	 * Replace all the rows with rows, which must be sorted by date without
+	 * duplicates (see {@link QuoteRows#sort()}). Readers see the old rows
+	 * until all the new ones are in place.
+	 */
+	public synchronized void replace(QuoteRows rows) throws IOException {
+		int count = rows.size();
+
+		relayout(Math.max(INITIAL_CAPACITY, count + count / 2), count, target -> {
+			target.dates.duplicate().put(rows.dates, 0, count);
+			target.opens.duplicate().put(rows.opens, 0, count);
+			target.highs.duplicate().put(rows.highs, 0, count);
+			target.lows.duplicate().put(rows.lows, 0, count);
+			target.closes.duplicate().put(rows.closes, 0, count);
+			target.volumes.duplicate().put(rows.volumes, 0, count);
+		});
+	}
+
+	public int size() {
+		return current().count;
+	}
+
+	/**
+	 * Answer a view that may be moved to any row.
+	 */
+	public View view() {
+		return new View();
+	}
+}
@@ -0,0 +1,492 @@
+package quotes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import quotes.yahoo.HistoryService;
+
+/**
+ * Serves quotes to local clients over HTTP, so that they share one cache and
+ * one set of connections to the quote sources:
+ *
+ * <pre>
+ * /quote?s=IBM,MSFT[&amp;d=yyyymmdd][&amp;format=json]
+ * /history?s=IBM,MSFT&amp;from=yyyymmdd&amp;to=yyyymmdd[&amp;format=json]
+ * /metrics
+ * </pre>
+ *
+ * Quotes come from the providers named by quotes.providers (as for
+ * {@link Main}), by default for the last day on which any of the symbols
+ * traded, with the reason for any that could not be fetched; history comes
+ * from the series store (see {@link SeriesStore#getDefaultFolder()}).
+ * Responses are CSV unless JSON is asked for. The server listens on the
+ * loopback address, on the port given by quotes.server.port (default 8642),
+ * and handles up to quotes.server.threads (default 64) requests at once.
+ */
+public final class QuoteServer {
+
+	/**
+	 * Thrown for a request that cannot be answered as asked.
+	 */
+	private static final class BadRequest extends Exception {
+
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+
+		BadRequest(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * Counts requests and keeps their recent response times.
+	 */
+	private static final class Metrics {
+
+		/** the number of recent requests kept */
+		private static final int SAMPLES = 4096;
+
+		private final AtomicLong failed;
+
+		private final long[] finishes;
+
+		private final long[] latencies;
+
+		private long requests;
+
+		private final long started;
+
+		Metrics() {
+			super();
+			this.failed = new AtomicLong();
+			this.finishes = new long[SAMPLES];
+			this.latencies = new long[SAMPLES];
+			this.requests = 0;
+			this.started = System.nanoTime();
+		}
+
+		void record(long start, boolean success) {
+			long finish = System.nanoTime();
+
+			if (!success) {
+				failed.incrementAndGet();
+			}
+
+			synchronized (this) {
+				int index = (int) (requests++ % SAMPLES);
+
+				finishes[index] = finish;
+				latencies[index] = finish - start;
+			}
+		}
+
+		@Override
+		public String toString() {
+			long now = System.nanoTime();
+			long total;
+			long[] times;
+			long[] sorted;
+
+			synchronized (this) {
+				total = requests;
+				times = Arrays.copyOf(finishes, (int) Math.min(total, SAMPLES));
+				sorted = Arrays.copyOf(latencies, times.length);
+			}
+
+			// the rate over the last ten seconds, or as much of them as is kept
+			long window = Math.min(TimeUnit.SECONDS.toNanos(10), now - started);
+
+			if (times.length == SAMPLES) {
+				window = Math.min(window, now - Arrays.stream(times).min().getAsLong());
+			}
+
+			long span = window;
+			long recent = Arrays.stream(times).filter(finish -> now - finish <= span).count();
+			double seconds = Math.max(1, window) / 1e9;
+
+			Arrays.sort(sorted);
+
+			return String.format("%d requests, %d failed; %.1f per second; p50 %s, p95 %s, p99 %s", // <br/>
+					Long.valueOf(total), Long.valueOf(failed.get()), Double.valueOf(recent / seconds),
+					percentile(sorted, 50), percentile(sorted, 95), percentile(sorted, 99));
+		}
+	}
+
+	private static final int Port = Integer.getInteger("quotes.server.port", 8642).intValue();
+
+	private static final String Sources = System.getProperty("quotes.providers", "yahoo");
+
+	private static final int Threads = Integer.getInteger("quotes.server.threads", 64).intValue();
+
+	/**
+	 * Append a packed date in the form yyyy-mm-dd.
+	 */
+	private static StringBuilder appendDate(StringBuilder out, int date) {
+		int start = out.length();
+
+		Date.append(out, date);
+		out.setCharAt(start + 4, '-');
+		out.setCharAt(start + 7, '-');
+
+		return out;
+	}
+
+	/**
+	 * Append a CSV field, quoted if necessary.
+	 */
+	private static StringBuilder appendCsv(StringBuilder out, String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			return out.append(value);
+		}
+
+		return out.append('"').append(value.replace("\"", "\"\"")).append('"');
+	}
+
+	private static StringBuilder appendJson(StringBuilder out, double value) {
+		return Double.isNaN(value) || Double.isInfinite(value) ? out.append("null") : out.append(value);
+	}
+
+	private static StringBuilder appendJson(StringBuilder out, String value) {
+		out.append('"');
+
+		for (int i = 0, n = value.length(); i < n; ++i) {
+			char ch = value.charAt(i);
+
+			if (ch == '"' || ch == '\\') {
+				out.append('\\').append(ch);
+			} else if (ch < ' ') {
+				out.append(String.format("\\u%04x", Integer.valueOf(ch)));
+			} else {
+				out.append(ch);
+			}
+		}
+
+		return out.append('"');
+	}
+
+	private static int getDate(Map<String, String> parameters, String name) throws BadRequest {
+		String value = parameters.get(name);
+
+		if (value == null) {
+			throw new BadRequest(400, "Missing parameter: " + name);
+		}
+
+		try {
+			return Date.parse(value);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequest(400, e.getMessage());
+		}
+	}
+
+	private static List<String> getSymbols(Map<String, String> parameters) throws BadRequest {
+		String value = parameters.get("s");
+		List<String> symbols = new ArrayList<>();
+
+		if (value != null) {
+			for (String symbol : value.split(",")) {
+				if (!symbol.trim().isEmpty()) {
+					symbols.add(symbol.trim());
+				}
+			}
+		}
+
+		if (symbols.isEmpty()) {
+			throw new BadRequest(400, "Missing parameter: s");
+		}
+
+		return symbols;
+	}
+
+	public static void main(String[] args) throws IOException {
+		QuoteServer server = new QuoteServer( // <br/>
+				Main.makeProvider(Sources), // <br/>
+				new SeriesStore(SeriesStore.getDefaultFolder()));
+
+		server.start(Port);
+
+		System.out.format("Serving quotes on port %d\n", Integer.valueOf(Port));
+	}
+
+	private static Map<String, String> parseQuery(String query) throws BadRequest {
+		Map<String, String> parameters = new HashMap<>();
+
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				int equals = parameter.indexOf('=');
+
+				try {
+					if (equals < 0) {
+						parameters.put(URLDecoder.decode(parameter, "UTF-8"), "");
+					} else {
+						parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+								URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+					}
+				} catch (IllegalArgumentException | UnsupportedEncodingException e) {
+					throw new BadRequest(400, "Bad query: " + query);
+				}
+			}
+		}
+
+		return parameters;
+	}
+
+	private static String percentile(long[] sorted, int percent) {
+		if (sorted.length == 0) {
+			return "-";
+		}
+
+		long micros = TimeUnit.NANOSECONDS.toMicros(sorted[(sorted.length - 1) * percent / 100]);
+
+		return micros < 10000 ? micros + " us" : micros / 1000 + " ms";
+	}
+
+	/** fetches the quotes in a batch in parallel */
+	private final ExecutorService fetcher;
+
+	private final Metrics metrics;
+
+	private final QuoteProvider provider;
+
+	private final SeriesStore store;
+
+	public QuoteServer(QuoteProvider provider, SeriesStore store) {
+		super();
+		this.fetcher = Executors.newFixedThreadPool(Integer.getInteger("quotes.threads", 16).intValue(), runnable -> {
+			Thread thread = new Thread(runnable, "QuoteServer");
+
+			thread.setDaemon(true);
+
+			return thread;
+		});
+		this.metrics = new Metrics();
+		this.provider = provider;
+		this.store = store;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		long start = System.nanoTime();
+		String contentType = "text/csv; charset=utf-8";
+		StringBuilder body = new StringBuilder();
+		int status = 200;
+
+		try {
+			if (!exchange.getRequestMethod().equals("GET")) {
+				throw new BadRequest(405, "Only GET is supported");
+			}
+
+			Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+			boolean json = "json".equals(parameters.get("format"));
+			String path = exchange.getRequestURI().getPath();
+
+			if (json) {
+				contentType = "application/json; charset=utf-8";
+			}
+
+			switch (path) {
+			case "/quote":
+				serveQuotes(getSymbols(parameters), parameters, json, body);
+				break;
+			case "/history":
+				serveHistory(getSymbols(parameters), parameters, json, body);
+				break;
+			case "/metrics":
+				contentType = "text/plain; charset=utf-8";
+				serveMetrics(body);
+				break;
+			default:
+				throw new BadRequest(404, "Not found: " + path);
+			}
+		} catch (BadRequest e) {
+			status = e.status;
+			contentType = "text/plain; charset=utf-8";
+			body.setLength(0);
+			body.append(e.getMessage()).append('\n');
+		} catch (IOException | RuntimeException e) {
+			status = 500;
+			contentType = "text/plain; charset=utf-8";
+			body.setLength(0);
+			body.append(e).append('\n');
+		}
+
+		try {
+			byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+
+			exchange.getResponseHeaders().set("Content-Type", contentType);
+			exchange.sendResponseHeaders(status, bytes.length);
+
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		} finally {
+			exchange.close();
+			metrics.record(start, status == 200);
+		}
+	}
+
+	private void serveHistory(List<String> symbols, Map<String, String> parameters, boolean json, StringBuilder out)
+			throws BadRequest, IOException {
+		Date first = Date.fromValue(getDate(parameters, "from"));
+		Date last = Date.fromValue(getDate(parameters, "to"));
+
+		out.append(json ? "{" : "Symbol,Date,Open,High,Low,Close,Volume\n");
+
+		for (int i = 0; i < symbols.size(); ++i) {
+			String symbol = symbols.get(i);
+			QuoteSeries series = store.find(symbol);
+
+			if (json) {
+				appendJson(out.append(i == 0 ? "" : ","), symbol).append(":[");
+			}
+
+			if (series != null) {
+				boolean[] firstRow = { true };
+
+				series.forEach(first, last, row -> {
+					if (json) {
+						out.append(firstRow[0] ? "" : ",");
+						appendDate(out.append("{\"date\":\""), row.getDateValue()).append('"');
+						appendJson(out.append(",\"open\":"), row.getOpen());
+						appendJson(out.append(",\"high\":"), row.getHigh());
+						appendJson(out.append(",\"low\":"), row.getLow());
+						appendJson(out.append(",\"close\":"), row.getClose());
+						out.append(",\"volume\":").append(row.getVolume()).append('}');
+					} else {
+						appendDate(out.append(symbol).append(','), row.getDateValue());
+						out.append(',').append(row.getOpen());
+						out.append(',').append(row.getHigh());
+						out.append(',').append(row.getLow());
+						out.append(',').append(row.getClose());
+						out.append(',').append(row.getVolume()).append('\n');
+					}
+
+					firstRow[0] = false;
+				});
+			}
+
+			if (json) {
+				out.append(']');
+			}
+		}
+
+		if (json) {
+			out.append("}\n");
+		}
+	}
+
+	private void serveMetrics(StringBuilder out) {
+		out.append(metrics).append('\n');
+
+		if (Sources.contains("yahoo")) {
+			out.append(HistoryService.getStatistics()).append('\n');
+		}
+	}
+
+	private void serveQuotes(List<String> symbols, Map<String, String> parameters, boolean json, StringBuilder out)
+			throws BadRequest {
+		int value = parameters.containsKey("d") // <br/>
+				? getDate(parameters, "d")
+				: Exchanges.calendarOfAny(symbols).previous(Date.today().value());
+		Date date = Date.fromValue(value);
+		List<Future<Quote>> quotes = new ArrayList<>(symbols.size());
+
+		for (String symbol : symbols) {
+			quotes.add(fetcher.submit(() -> provider.getQuote(symbol, date)));
+		}
+
+		out.append(json ? "[" : "Symbol,Date,Price,Volume,Error\n");
+
+		for (int i = 0; i < symbols.size(); ++i) {
+			String symbol = symbols.get(i);
+			Quote quote = null;
+			String error = null;
+
+			try {
+				quote = quotes.get(i).get();
+			} catch (InterruptedException e) {
+				error = "Interrupted";
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+
+				error = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+			}
+
+			if (json) {
+				appendJson(out.append(i == 0 ? "{\"symbol\":" : ",{\"symbol\":"), symbol);
+				appendDate(out.append(",\"date\":\""), value).append('"');
+
+				if (quote != null) {
+					appendJson(out.append(",\"price\":"), quote.getPrice());
+					out.append(",\"volume\":").append(quote.getVolume());
+				} else {
+					out.append(",\"price\":null,\"volume\":null");
+				}
+
+				if (error != null) {
+					appendJson(out.append(",\"error\":"), error);
+				}
+
+				out.append('}');
+			} else {
+				appendDate(out.append(symbol).append(','), value).append(',');
+
+				if (quote != null) {
+					out.append(quote.getPrice()).append(',').append(quote.getVolume());
+				} else {
+					out.append(',');
+				}
+
+				out.append(',');
+
+				if (error != null) {
+					appendCsv(out, error);
+				}
+
+				out.append('\n');
+			}
+		}
+
+		if (json) {
+			out.append("]\n");
+		}
+	}
+
+	/**
+	 * Start serving on the given port of the loopback address, and answer
+	 * the server.
+	 */
+	public HttpServer start(int port) throws IOException {
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			// otherwise small responses wait for the client's delayed ACK
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+
+		server.setExecutor(Executors.newFixedThreadPool(Threads));
+		server.createContext("/", this::handle);
+		server.start();
+
+		return server;
+	}
+}
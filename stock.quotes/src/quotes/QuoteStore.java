@@ -0,0 +1,408 @@
+package quotes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The on-disk part of a {@link QuoteCache}: a log of entries, each appended
+ * as it is learned. Only the position of each key's latest entry is kept in
+ * memory. When most of the log has been superseded it is rewritten on open.
+ * <p>
+ * The file may be shared by several processes. Each holds a shared lock
+ * while it has the file open, so that it is only rewritten by a process that
+ * has it to itself; entries are appended under an exclusive lock, after
+ * indexing those appended by others. A process that cannot share the file
+ * (because another is rewriting it) only reads it.
+ *
+ * <pre>
+ * int   magic, version
+ * entry * (short keyLength, byte[keyLength] key (UTF-8), byte hasQuote,
+ *          long expires, double price, long volume)
+ * </pre>
+ */
+final class QuoteStore {
+
+	private static final int HEADER_SIZE = 8;
+
+	/** the position of a byte locked while appending to the file */
+	private static final long LOCK_APPEND = Long.MAX_VALUE - 1;
+
+	/**
+	 * the position of a byte locked (shared) while the file is open, and
+	 * exclusively while it is being rewritten
+	 */
+	private static final long LOCK_OPEN = Long.MAX_VALUE - 2;
+
+	private static final int MAGIC = 0x51554f54; // "QUOT"
+
+	/** the magic number of a file that has been replaced by a rewritten one */
+	private static final int REPLACED = 0;
+
+	/** the size of an entry after its key */
+	private static final int TAIL_SIZE = 1 + 8 + 8 + 8;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Rewrite the file with only the latest unexpired entry for each key,
+	 * marking the old one as replaced. The store must not be used
+	 * afterwards.
+	 */
+	private static void compact(Path file, QuoteStore store) throws IOException {
+		Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), "quotes", ".tmp");
+		long now = System.currentTimeMillis();
+
+		try {
+			try (FileChannel target = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				target.write(header(MAGIC));
+
+				for (Long position : store.positions.values()) {
+					ByteBuffer record = readRecord(store.channel, position.longValue());
+
+					if (!decode(record.duplicate()).isExpired(now)) {
+						target.write(record);
+					}
+				}
+			}
+
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			// tell any process that opened the old file to open the new one
+			store.channel.write(header(REPLACED), 0);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private static QuoteCache.Entry decode(ByteBuffer record) {
+		record.position(2 + record.getShort(0));
+
+		boolean hasQuote = record.get() != 0;
+		long expires = record.getLong();
+		double price = record.getDouble();
+		long volume = record.getLong();
+
+		return new QuoteCache.Entry(hasQuote ? new Quote(price, volume) : null, expires);
+	}
+
+	private static ByteBuffer encode(String key, QuoteCache.Entry entry) {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(2 + keyBytes.length + TAIL_SIZE);
+		Quote quote = entry.quote;
+
+		buffer.putShort((short) keyBytes.length);
+		buffer.put(keyBytes);
+		buffer.put((byte) (quote != null ? 1 : 0));
+		buffer.putLong(entry.expires);
+		buffer.putDouble(quote != null ? quote.getPrice() : 0);
+		buffer.putLong(quote != null ? quote.getVolume() : 0);
+		buffer.flip();
+
+		return buffer;
+	}
+
+	private static ByteBuffer header(int magic) {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+
+		buffer.putInt(magic);
+		buffer.putInt(VERSION);
+		buffer.flip();
+
+		return buffer;
+	}
+
+	/**
+	 * Answer whether the key of record is key.
+	 */
+	private static boolean isFor(ByteBuffer record, byte[] key) {
+		if (record.getShort(0) != key.length) {
+			return false;
+		}
+
+		for (int i = 0; i < key.length; ++i) {
+			if (record.get(2 + i) != key[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	static QuoteStore open(Path file) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+
+		for (;;) {
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+
+			try {
+				QuoteStore store = open(file, channel);
+
+				if (store != null) {
+					return store;
+				}
+			} catch (IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+
+			// the file was replaced: open the new one
+			channel.close();
+		}
+	}
+
+	/**
+	 * Open the store in channel, or answer null if the file has been
+	 * replaced and must be opened again.
+	 */
+	private static QuoteStore open(Path file, FileChannel channel) throws IOException {
+		QuoteStore store = new QuoteStore(channel);
+		FileLock alone = channel.tryLock(LOCK_OPEN, 1, false);
+
+		if (alone != null) {
+			// no other process has the file open, so it may be rewritten
+			if (!store.sync(true)) {
+				return null;
+			}
+
+			if (store.isMostlyGarbage()) {
+				compact(file, store);
+				return null;
+			}
+
+			alone.release();
+		}
+
+		// held until the channel is closed
+		if (channel.tryLock(LOCK_OPEN, 1, true) == null) {
+			store.readOnly = true;
+		}
+
+		return store.sync(false) ? store : null;
+	}
+
+	private static ByteBuffer readRecord(FileChannel channel, long position) throws IOException {
+		ByteBuffer keyLength = ByteBuffer.allocate(2);
+
+		readFully(channel, keyLength, position);
+
+		ByteBuffer record = ByteBuffer.allocate(2 + keyLength.getShort(0) + TAIL_SIZE);
+
+		readFully(channel, record, position);
+		record.flip();
+
+		return record;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int count = channel.read(buffer, position);
+
+			if (count < 0) {
+				throw new IOException("Quote cache is truncated");
+			}
+
+			position += count;
+		}
+	}
+
+	private final FileChannel channel;
+
+	/** the end of the entries indexed */
+	private long end;
+
+	private int entryCount;
+
+	private final Map<String, Long> positions;
+
+	private boolean readOnly;
+
+	private QuoteStore(FileChannel channel) {
+		super();
+		this.channel = channel;
+		this.end = 0;
+		this.entryCount = 0;
+		this.positions = new HashMap<>();
+		this.readOnly = false;
+	}
+
+	/**
+	 * Index the complete entries from the end of those already indexed to
+	 * size, dropping an incomplete entry at the end if the file may be
+	 * written.
+	 */
+	private void index(long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size - end, 1 << 20));
+		long base = end;
+
+		readFully(channel, buffer, base);
+		buffer.flip();
+
+		for (;;) {
+			if (buffer.remaining() < 2 || buffer.remaining() < 2 + buffer.getShort(buffer.position()) + TAIL_SIZE) {
+				// refill the buffer from the start of the next entry
+				long next = base + buffer.position();
+
+				if (next >= size || buffer.position() == 0) {
+					break;
+				}
+
+				base = next;
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), size - base));
+				readFully(channel, buffer, base);
+				buffer.flip();
+				continue;
+			}
+
+			long position = base + buffer.position();
+			byte[] keyBytes = new byte[buffer.getShort()];
+
+			buffer.get(keyBytes);
+			buffer.position(buffer.position() + TAIL_SIZE);
+			positions.put(new String(keyBytes, StandardCharsets.UTF_8), Long.valueOf(position));
+			entryCount += 1;
+			end = base + buffer.position();
+		}
+
+		if (end < size && !readOnly) {
+			// appends are locked, so this was left by a process that failed
+			channel.truncate(end);
+		}
+	}
+
+	private boolean isMostlyGarbage() {
+		return entryCount > 1024 && entryCount > positions.size() * 2;
+	}
+
+	/**
+	 * Answer whether other processes may not add to the file through this
+	 * store.
+	 */
+	boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * Answer the latest entry for key, or null. Only the lookup holds the
+	 * monitor; the entry is read outside it, so reads don't wait for each
+	 * other.
+	 */
+	QuoteCache.Entry read(String key) {
+		try {
+			Long position;
+
+			synchronized (this) {
+				position = positions.get(key);
+
+				if (position == null && !readOnly && channel.size() > end) {
+					// another process may have added it
+					sync(false);
+					position = positions.get(key);
+				}
+			}
+
+			if (position == null) {
+				return null;
+			}
+
+			ByteBuffer record = readRecord(channel, position.longValue());
+
+			return isFor(record, key.getBytes(StandardCharsets.UTF_8)) ? decode(record) : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Index the entries added since the file was last looked at, starting
+	 * the file afresh if it is empty or, if alone, not a quote cache. Answer
+	 * false if the file has been replaced.
+	 */
+	private boolean sync(boolean alone) throws IOException {
+		FileLock lock = readOnly ? null : channel.lock(LOCK_APPEND, 1, false);
+
+		try {
+			long size = channel.size();
+
+			if (end == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+				if (size >= HEADER_SIZE) {
+					readFully(channel, header, 0);
+				}
+
+				if (size >= HEADER_SIZE && header.getInt(0) == REPLACED) {
+					return false;
+				}
+
+				if (size < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+					if (size != 0 && !alone) {
+						throw new IOException("Not a quote cache, or one of another version in use");
+					}
+
+					if (!readOnly) {
+						channel.truncate(0);
+						channel.write(header(MAGIC), 0);
+					}
+
+					end = HEADER_SIZE;
+					return true;
+				}
+
+				end = HEADER_SIZE;
+			}
+
+			if (end < size) {
+				index(size);
+			}
+
+			return true;
+		} finally {
+			if (lock != null) {
+				lock.release();
+			}
+		}
+	}
+
+	synchronized void write(String key, QuoteCache.Entry entry) throws IOException {
+		if (readOnly) {
+			return;
+		}
+
+		FileLock lock = channel.lock(LOCK_APPEND, 1, false);
+
+		try {
+			long size = channel.size();
+
+			if (end < size) {
+				// other processes have added entries since
+				index(size);
+			}
+
+			ByteBuffer record = encode(key, entry);
+			long position = end;
+
+			while (record.hasRemaining()) {
+				end += channel.write(record, end);
+			}
+
+			positions.put(key, Long.valueOf(position));
+			entryCount += 1;
+		} finally {
+			lock.release();
+		}
+	}
+}
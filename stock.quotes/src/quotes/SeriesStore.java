@@ -0,0 +1,116 @@
+package quotes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A folder of {@link QuoteSeries}, one file per symbol, opened as needed.
+ */
+public final class SeriesStore {
+
+	private static final String SUFFIX = ".series";
+
+	/**
+	 * Answer a file name for the symbol: characters that may not be safe in
+	 * file names are escaped as %xx.
+	 */
+	private static String fileName(String symbol) {
+		StringBuilder name = new StringBuilder(symbol.length() + SUFFIX.length());
+
+		for (int i = 0, n = symbol.length(); i < n; ++i) {
+			char ch = symbol.charAt(i);
+
+			if (('A' <= ch && ch <= 'Z') || ('0' <= ch && ch <= '9') || ch == '-' || ch == '.' || ch == '_') {
+				name.append(ch);
+			} else {
+				name.append(String.format("%%%02x", Integer.valueOf(ch)));
+			}
+		}
+
+		return name.append(SUFFIX).toString();
+	}
+
+	/**
+	 * Answer the folder named by the quotes.series property, by default
+	 * ~/.quotes/series.
+	 */
+	public static Path getDefaultFolder() {
+		String folder = System.getProperty("quotes.series");
+
+		if (folder == null) {
+			return Paths.get(System.getProperty("user.home"), ".quotes", "series");
+		}
+
+		return Paths.get(folder);
+	}
+
+	private final Path folder;
+
+	private final Map<String, QuoteSeries> open;
+
+	public SeriesStore(Path folder) throws IOException {
+		super();
+		this.folder = Files.createDirectories(folder);
+		this.open = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Write any changes to all the open series.
+	 */
+	public void flush() {
+		for (QuoteSeries series : open.values()) {
+			series.flush();
+		}
+	}
+
+	/**
+	 * Answer the series for a symbol, or null if there is none.
+	 */
+	public QuoteSeries find(String symbol) throws IOException {
+		QuoteSeries series = open.get(symbol);
+
+		if (series == null && Files.exists(folder.resolve(fileName(symbol)))) {
+			series = get(symbol);
+		}
+
+		return series;
+	}
+
+	/**
+	 * Answer the series for a symbol, creating it if necessary.
+	 */
+	public QuoteSeries get(String symbol) throws IOException {
+		QuoteSeries series = open.get(symbol);
+
+		if (series == null) {
+			synchronized (open) {
+				series = open.get(symbol);
+
+				if (series == null) {
+					series = QuoteSeries.open(folder.resolve(fileName(symbol)));
+					open.put(symbol, series);
+				}
+			}
+		}
+
+		return series;
+	}
+
+	/**
+	 * Replace the rows of the series for a symbol with rows, which must be
+	 * sorted (see {@link QuoteRows#sort()}), and answer it. The rows are
+	 * replaced in the same file, which stays mapped, so a series already
+	 * answered for the symbol sees the new rows too.
+	 */
+	public QuoteSeries replace(String symbol, QuoteRows rows) throws IOException {
+		QuoteSeries series = get(symbol);
+
+		series.replace(rows);
+
+		return series;
+	}
+}
@@ -0,0 +1,37 @@
+package quotes;
+
+/**
+ * Tells which days an exchange is open, so that quotes are not sought for
+ * days on which there can be none (see {@link Exchanges#calendarOf(String)}). Dates are in packed form (see
+ * {@link Date#value()}).
+ */
+public interface TradingCalendar {
+
+	/** open every day but Saturday and Sunday */
+	TradingCalendar WEEKDAYS = date -> Date.dayOfWeek(date) <= 5;
+
+	boolean isTradingDay(int date);
+
+	/**
+	 * Answer the first trading day after date.
+	 */
+	default int next(int date) {
+		do {
+			date = Date.nextDay(date);
+		} while (!isTradingDay(date));
+
+		return date;
+	}
+
+	/**
+	 * Answer the last trading day before date.
+	 */
+	default int previous(int date) {
+		do {
+			date = Date.previousDay(date);
+		} while (!isTradingDay(date));
+
+		return date;
+	}
+
+}
@@ -0,0 +1,282 @@
+package quotes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.ToIntFunction;
+
+/**
+ * Watches the quotes for a list of symbols, fetching each again once it is
+ * older than an interval and printing only the rows whose price or volume
+ * changed. The latest quotes are kept in arrays indexed like the symbols;
+ * those due to be fetched again wait in a queue in the order they were
+ * fetched (which is the order they become stale), so each refresh looks at
+ * only the stale entries. Quotes the provider has locally (see
+ * {@link QuoteProvider#isLocal(String, Date)}) won't change and are not
+ * fetched again. Holdings, if given, are revalued as each quote changes and
+ * their new total is printed; they are added up afresh whenever every quote
+ * has been fetched again.
+ */
+public final class Watcher {
+
+	private static Quote join(Future<Quote> future) throws IOException {
+		for (;;) {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				// ignore
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+
+				throw new IOException(cause);
+			}
+		}
+	}
+
+	private final TradingCalendar calendar;
+
+	/** a ring of the indices of the symbols to be fetched again */
+	private final int[] due;
+
+	private int dueCount;
+
+	private int dueHead;
+
+	/** when each symbol was last fetched (or failed to be), in milliseconds */
+	private final long[] fetched;
+
+	private final long intervalMillis;
+
+	/** the holdings to be valued, or null */
+	private final Portfolio portfolio;
+
+	/** NaN where there is no quote */
+	private final double[] prices;
+
+	private final ToIntFunction<String> priority;
+
+	private final QuoteProvider provider;
+
+	private final List<String> symbols;
+
+	private final int threads;
+
+	/** -1 where nothing has been fetched */
+	private final long[] volumes;
+
+	/**
+	 * Create a watcher fetching quotes for symbols from provider, by up to
+	 * threads at once, in order of priority (see {@link FetchScheduler}),
+	 * each again when it is older than intervalMillis, and valuing portfolio
+	 * (which may be null).
+	 */
+	public Watcher(QuoteProvider provider, List<String> symbols, ToIntFunction<String> priority, int threads,
+			TradingCalendar calendar, long intervalMillis, Portfolio portfolio) {
+		super();
+		this.calendar = calendar;
+		this.due = new int[symbols.size()];
+		this.dueCount = 0;
+		this.dueHead = 0;
+		this.fetched = new long[symbols.size()];
+		this.intervalMillis = intervalMillis;
+		this.portfolio = portfolio;
+		this.prices = new double[symbols.size()];
+		this.priority = priority;
+		this.provider = provider;
+		this.symbols = new ArrayList<>(symbols);
+		this.threads = threads;
+		this.volumes = new long[symbols.size()];
+	}
+
+	private void addDue(int index) {
+		due[(dueHead + dueCount) % due.length] = index;
+		dueCount += 1;
+	}
+
+	/**
+	 * Answer the last trading day, including today.
+	 */
+	private Date getLatest() {
+		int today = Date.today().value();
+
+		return Date.fromValue(calendar.isTradingDay(today) ? today : calendar.previous(today));
+	}
+
+	private void printRow(int index, double price, long volume) {
+		String symbol = symbols.get(index);
+
+		if (Double.isNaN(price)) {
+			System.out.format("%-8s %10s\n", // <br/>
+					symbol, "-.--");
+		} else if (Double.isNaN(prices[index])) {
+			System.out.format("%-8s %,10.2f %,14d\n", // <br/>
+					symbol, Double.valueOf(price), Long.valueOf(volume));
+		} else {
+			System.out.format("%-8s %,10.2f %,14d %+10.2f\n", // <br/>
+					symbol, Double.valueOf(price), Long.valueOf(volume), Double.valueOf(price - prices[index]));
+		}
+	}
+
+	/**
+	 * Fetch the quotes that are stale, printing those that changed.
+	 */
+	private void refresh(FetchScheduler scheduler, Date date) {
+		long now = System.currentTimeMillis();
+		int count = 0;
+
+		while (count < dueCount && fetched[due[(dueHead + count) % due.length]] + intervalMillis <= now) {
+			count += 1;
+		}
+
+		if (count == 0) {
+			return;
+		}
+
+		int[] indices = new int[count];
+		List<String> stale = new ArrayList<>(count);
+
+		for (int i = 0; i < count; ++i) {
+			indices[i] = due[dueHead];
+			dueHead = (dueHead + 1) % due.length;
+			dueCount -= 1;
+			stale.add(symbols.get(indices[i]));
+		}
+
+		List<Future<Quote>> quotes = scheduler.fetch(stale, priority);
+		boolean changed = false;
+		double total = portfolio != null ? portfolio.getTotal() : 0;
+		boolean revalued = false;
+
+		for (int i = 0; i < count; ++i) {
+			int index = indices[i];
+			Quote quote;
+
+			try {
+				quote = join(quotes.get(i));
+			} catch (IOException | RuntimeException e) {
+				// keep what we had, and try again later
+				fetched[index] = System.currentTimeMillis();
+				addDue(index);
+				continue;
+			}
+
+			double price = quote != null ? quote.getPrice() : Double.NaN;
+			long volume = quote != null ? quote.getVolume() : 0;
+
+			fetched[index] = System.currentTimeMillis();
+
+			if (Double.compare(price, prices[index]) != 0 || volume != volumes[index]) {
+				if (!changed) {
+					changed = true;
+					System.out.format("\n%tT\n", Long.valueOf(fetched[index]));
+				}
+
+				printRow(index, price, volume);
+				prices[index] = price;
+				volumes[index] = volume;
+
+				if (portfolio != null) {
+					revalued |= portfolio.update(stale.get(i), quote);
+				}
+			}
+
+			if (!provider.isLocal(stale.get(i), date)) {
+				addDue(index);
+			}
+		}
+
+		if (portfolio != null && count == symbols.size()) {
+			// every quote was fetched again: add up the holdings afresh
+			portfolio.recompute();
+		}
+
+		if (revalued) {
+			System.out.format("%-8s %,25.2f %+,14.2f %s%s\n", // <br/>
+					"Total", Double.valueOf(portfolio.getTotal()), Double.valueOf(portfolio.getTotal() - total),
+					portfolio.getBase(), portfolio.isComplete() ? "" : " (incomplete)");
+		}
+
+		System.out.flush();
+	}
+
+	/**
+	 * Forget all quotes, so that all are fetched and printed.
+	 */
+	private void reset() {
+		Arrays.fill(fetched, Long.MIN_VALUE / 2);
+		Arrays.fill(prices, Double.NaN);
+		Arrays.fill(volumes, -1);
+
+		dueCount = 0;
+		dueHead = 0;
+
+		for (int i = 0; i < due.length; ++i) {
+			addDue(i);
+		}
+	}
+
+	/**
+	 * Watch the quotes on date or, if it is null, on the latest trading day,
+	 * following it as days pass. Answer when there's nothing left that may
+	 * change or the thread is interrupted.
+	 */
+	public void run(Date date) throws IOException {
+		Date current = null;
+		FetchScheduler scheduler = null;
+
+		try {
+			for (;;) {
+				Date latest = date != null ? date : getLatest();
+
+				if (!latest.equals(current)) {
+					if (scheduler != null) {
+						scheduler.close();
+					}
+
+					current = latest;
+					scheduler = new FetchScheduler(provider, current, threads, null);
+					reset();
+
+					System.out.format("Quotes for %s\n", current);
+					System.out.println();
+					System.out.println("Symbol        Price         Volume     Change");
+					System.out.println("------        -----         ------     ------");
+				}
+
+				refresh(scheduler, current);
+
+				long wait = intervalMillis;
+
+				if (dueCount != 0) {
+					wait = fetched[due[dueHead]] + intervalMillis - System.currentTimeMillis();
+				} else if (date != null) {
+					// nothing more will change
+					return;
+				}
+
+				if (wait > 0) {
+					try {
+						Thread.sleep(wait);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		} finally {
+			if (scheduler != null) {
+				scheduler.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package quotes.analytics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Does some work for each index in a range, splitting the range in halves
+ * (down to single indices) so that idle threads of the common fork-join pool
+ * can take over parts of it.
+ */
+final class ForEach extends RecursiveAction {
+
+	interface Body {
+
+		void run(int index);
+
+	}
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Run body for each index from from to to (exclusive), answering when all
+	 * are done.
+	 */
+	static void run(int from, int to, Body body) {
+		if (to - from == 1) {
+			body.run(from);
+		} else if (to > from) {
+			ForkJoinPool.commonPool().invoke(new ForEach(from, to, body));
+		}
+	}
+
+	private final transient Body body;
+
+	private final int from;
+
+	private final int to;
+
+	private ForEach(int from, int to, Body body) {
+		super();
+		this.body = body;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+		if (to - from == 1) {
+			body.run(from);
+		} else {
+			int middle = (from + to) >>> 1;
+
+			invokeAll(new ForEach(from, middle, body), new ForEach(middle, to, body));
+		}
+	}
+}
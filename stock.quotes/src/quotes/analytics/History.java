@@ -0,0 +1,199 @@
+package quotes.analytics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import quotes.Date;
+import quotes.QuoteSeries;
+import quotes.SeriesStore;
+
+/**
+ * The daily history of several symbols over a range of dates, one array per
+ * field and symbol, aligned so that index i of every array is the same day:
+ * the days on which any of the symbols traded. A symbol without a row for one
+ * of those days is given its previous close (or before its first row, its
+ * first close) as all its prices, with no volume, so that its return for the
+ * day is zero. The arrays answered are shared and must not be changed.
+ */
+public final class History {
+
+	/**
+	 * Answer the history of the symbols from first to last, inclusive, as
+	 * kept in store; symbols not in store have no rows.
+	 */
+	public static History load(SeriesStore store, List<String> symbols, Date first, Date last) throws IOException {
+		int count = symbols.size();
+		QuoteSeries[] series = new QuoteSeries[count];
+
+		for (int i = 0; i < count; ++i) {
+			series[i] = store.find(symbols.get(i));
+		}
+
+		History history = new History(symbols.toArray(new String[count]), tradingDates(series, first, last));
+
+		ForEach.run(0, count, index -> {
+			if (series[index] != null) {
+				history.fill(index, series[index], first, last);
+			} else {
+				history.fillMissing(index);
+			}
+		});
+
+		return history;
+	}
+
+	/**
+	 * Answer the dates, in order, on which any of the series has a row
+	 * between first and last, inclusive.
+	 */
+	private static int[] tradingDates(QuoteSeries[] series, Date first, Date last) {
+		int[] count = { 0 };
+		int[][] dates = { new int[256] };
+
+		for (QuoteSeries one : series) {
+			if (one == null) {
+				continue;
+			}
+
+			one.forEach(first, last, row -> {
+				int index = count[0]++;
+
+				if (index == dates[0].length) {
+					dates[0] = Arrays.copyOf(dates[0], index * 2);
+				}
+
+				dates[0][index] = row.getDateValue();
+			});
+		}
+
+		int[] sorted = dates[0];
+		int unique = 0;
+
+		Arrays.sort(sorted, 0, count[0]);
+
+		for (int i = 0; i < count[0]; ++i) {
+			if (unique == 0 || sorted[unique - 1] != sorted[i]) {
+				sorted[unique++] = sorted[i];
+			}
+		}
+
+		return Arrays.copyOf(sorted, unique);
+	}
+
+	private final double[][] closes;
+
+	private final int[] dates;
+
+	private final double[][] highs;
+
+	private final double[][] lows;
+
+	private final int[] rowCounts;
+
+	private final String[] symbols;
+
+	private final long[][] volumes;
+
+	private History(String[] symbols, int[] dates) {
+		super();
+		this.closes = new double[symbols.length][dates.length];
+		this.dates = dates;
+		this.highs = new double[symbols.length][dates.length];
+		this.lows = new double[symbols.length][dates.length];
+		this.rowCounts = new int[symbols.length];
+		this.symbols = symbols;
+		this.volumes = new long[symbols.length][dates.length];
+	}
+
+	/**
+	 * Copy the rows of series between first and last into the arrays for
+	 * symbol, filling the days it has no row for.
+	 */
+	private void fill(int symbol, QuoteSeries series, Date first, Date last) {
+		double[] close = closes[symbol];
+		double[] high = highs[symbol];
+		double[] low = lows[symbol];
+		long[] volume = volumes[symbol];
+		int[] next = { 0 };
+
+		series.forEach(first, last, row -> {
+			int day = Arrays.binarySearch(dates, next[0], dates.length, row.getDateValue());
+
+			if (next[0] == 0) {
+				// before its first row
+				Arrays.fill(close, 0, day, row.getClose());
+				Arrays.fill(high, 0, day, row.getClose());
+				Arrays.fill(low, 0, day, row.getClose());
+			} else {
+				Arrays.fill(close, next[0], day, close[next[0] - 1]);
+				Arrays.fill(high, next[0], day, close[next[0] - 1]);
+				Arrays.fill(low, next[0], day, close[next[0] - 1]);
+			}
+
+			close[day] = row.getClose();
+			high[day] = row.getHigh();
+			low[day] = row.getLow();
+			volume[day] = row.getVolume();
+			next[0] = day + 1;
+			rowCounts[symbol] += 1;
+		});
+
+		if (next[0] == 0) {
+			fillMissing(symbol);
+		} else {
+			Arrays.fill(close, next[0], dates.length, close[next[0] - 1]);
+			Arrays.fill(high, next[0], dates.length, close[next[0] - 1]);
+			Arrays.fill(low, next[0], dates.length, close[next[0] - 1]);
+		}
+	}
+
+	private void fillMissing(int symbol) {
+		Arrays.fill(closes[symbol], Double.NaN);
+		Arrays.fill(highs[symbol], Double.NaN);
+		Arrays.fill(lows[symbol], Double.NaN);
+	}
+
+	public double[] getCloses(int symbol) {
+		return closes[symbol];
+	}
+
+	/**
+	 * Answer the days in packed form (see {@link Date#value()}).
+	 */
+	public int[] getDates() {
+		return dates;
+	}
+
+	public int getDayCount() {
+		return dates.length;
+	}
+
+	public double[] getHighs(int symbol) {
+		return highs[symbol];
+	}
+
+	public double[] getLows(int symbol) {
+		return lows[symbol];
+	}
+
+	/**
+	 * Answer how many of the days symbol has rows for; if none, all its
+	 * prices are NaN.
+	 */
+	public int getRowCount(int symbol) {
+		return rowCounts[symbol];
+	}
+
+	public String getSymbol(int symbol) {
+		return symbols[symbol];
+	}
+
+	public int getSymbolCount() {
+		return symbols.length;
+	}
+
+	public long[] getVolumes(int symbol) {
+		return volumes[symbol];
+	}
+}
@@ -0,0 +1,287 @@
+package quotes.analytics;
+
+import java.util.Arrays;
+
+/**
+ * Calculations over series held in primitive arrays. Sums are kept in four
+ * independent parts so that the JIT may overlap (and, where it can,
+ * vectorize) the additions, rather than waiting for each one in turn.
+ */
+public final class Kernels {
+
+	private static void checkLength(int expected, int actual) {
+		if (actual != expected) {
+			throw new IllegalArgumentException("Bad length: " + actual + ", expected " + expected);
+		}
+	}
+
+	private static void checkWindow(int window, int minimum) {
+		if (window < minimum) {
+			throw new IllegalArgumentException("Bad window: " + window);
+		}
+	}
+
+	/**
+	 * Answer the Pearson correlation of x and y, or NaN if either is
+	 * constant.
+	 */
+	public static double correlation(double[] x, double[] y) {
+		checkLength(x.length, y.length);
+
+		int length = x.length;
+		double meanX = mean(x, 0, length);
+		double meanY = mean(y, 0, length);
+		double xy0 = 0, xy1 = 0, xy2 = 0, xy3 = 0;
+		double xx0 = 0, xx1 = 0, xx2 = 0, xx3 = 0;
+		double yy0 = 0, yy1 = 0, yy2 = 0, yy3 = 0;
+		int i = 0;
+
+		for (int end = length & ~3; i < end; i += 4) {
+			double x0 = x[i] - meanX, x1 = x[i + 1] - meanX, x2 = x[i + 2] - meanX, x3 = x[i + 3] - meanX;
+			double y0 = y[i] - meanY, y1 = y[i + 1] - meanY, y2 = y[i + 2] - meanY, y3 = y[i + 3] - meanY;
+
+			xy0 += x0 * y0;
+			xy1 += x1 * y1;
+			xy2 += x2 * y2;
+			xy3 += x3 * y3;
+			xx0 += x0 * x0;
+			xx1 += x1 * x1;
+			xx2 += x2 * x2;
+			xx3 += x3 * x3;
+			yy0 += y0 * y0;
+			yy1 += y1 * y1;
+			yy2 += y2 * y2;
+			yy3 += y3 * y3;
+		}
+
+		for (; i < length; ++i) {
+			double dx = x[i] - meanX;
+			double dy = y[i] - meanY;
+
+			xy0 += dx * dy;
+			xx0 += dx * dx;
+			yy0 += dy * dy;
+		}
+
+		double xx = (xx0 + xx1) + (xx2 + xx3);
+		double yy = (yy0 + yy1) + (yy2 + yy3);
+
+		if (xx == 0 || yy == 0) {
+			return Double.NaN;
+		}
+
+		return ((xy0 + xy1) + (xy2 + xy3)) / Math.sqrt(xx * yy);
+	}
+
+	/**
+	 * Answer the sum of the products of x and y from index from to index to
+	 * (exclusive).
+	 */
+	public static double dot(double[] x, double[] y, int from, int to) {
+		double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+		int i = from;
+
+		for (int end = to - ((to - from) & 3); i < end; i += 4) {
+			sum0 += x[i] * y[i];
+			sum1 += x[i + 1] * y[i + 1];
+			sum2 += x[i + 2] * y[i + 2];
+			sum3 += x[i + 3] * y[i + 3];
+		}
+
+		for (; i < to; ++i) {
+			sum0 += x[i] * y[i];
+		}
+
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	/**
+	 * Set returns[i] to the natural log of prices[i + 1] / prices[i]; returns
+	 * must be one shorter than prices.
+	 */
+	public static void logReturns(double[] prices, double[] returns) {
+		checkLength(prices.length - 1, returns.length);
+
+		for (int i = 0; i < returns.length; ++i) {
+			returns[i] = Math.log(prices[i + 1] / prices[i]);
+		}
+	}
+
+	/**
+	 * Answer the mean of values from index from to index to (exclusive), or
+	 * NaN if there are none.
+	 */
+	public static double mean(double[] values, int from, int to) {
+		return sum(values, from, to) / (to - from);
+	}
+
+	/**
+	 * Set averages[i] to the mean of the window values ending at values[i];
+	 * the first window - 1 averages, which don't have enough values, are NaN.
+	 */
+	public static void movingAverage(double[] values, int window, double[] averages) {
+		checkLength(values.length, averages.length);
+		checkWindow(window, 1);
+
+		double sum = 0;
+
+		for (int i = 0; i < values.length; ++i) {
+			sum += values[i];
+
+			if (i >= window) {
+				sum -= values[i - window];
+			}
+
+			averages[i] = i + 1 >= window ? sum / window : Double.NaN;
+		}
+	}
+
+	/**
+	 * Set returns[i] to prices[i + 1] / prices[i] - 1; returns must be one
+	 * shorter than prices.
+	 */
+	public static void returns(double[] prices, double[] returns) {
+		checkLength(prices.length - 1, returns.length);
+
+		for (int i = 0; i < returns.length; ++i) {
+			returns[i] = prices[i + 1] / prices[i] - 1;
+		}
+	}
+
+	/**
+	 * Set volatilities[i] to the sample standard deviation of the window
+	 * returns ending at returns[i]; the first window - 1, which don't have
+	 * enough returns, are NaN.
+	 */
+	public static void rollingVolatility(double[] returns, int window, double[] volatilities) {
+		checkLength(returns.length, volatilities.length);
+		checkWindow(window, 2);
+
+		double sum = 0;
+		double squares = 0;
+
+		for (int i = 0; i < returns.length; ++i) {
+			double value = returns[i];
+
+			sum += value;
+			squares += value * value;
+
+			if (i >= window) {
+				double old = returns[i - window];
+
+				sum -= old;
+				squares -= old * old;
+			}
+
+			if (i + 1 >= window) {
+				// rounding may leave a tiny negative variance
+				double variance = (squares - sum * sum / window) / (window - 1);
+
+				volatilities[i] = Math.sqrt(Math.max(0, variance));
+			} else {
+				volatilities[i] = Double.NaN;
+			}
+		}
+	}
+
+	/**
+	 * Set scaled to values less their mean, divided by the length of the
+	 * result so that it has length one; the dot product of two such series
+	 * is their correlation. Answer false, leaving scaled all zero, if values
+	 * is constant.
+	 */
+	public static boolean standardize(double[] values, double[] scaled) {
+		checkLength(values.length, scaled.length);
+
+		double mean = mean(values, 0, values.length);
+
+		for (int i = 0; i < values.length; ++i) {
+			scaled[i] = values[i] - mean;
+		}
+
+		double norm = Math.sqrt(dot(scaled, scaled, 0, scaled.length));
+
+		if (!(norm > 0)) {
+			Arrays.fill(scaled, 0);
+			return false;
+		}
+
+		double factor = 1 / norm;
+
+		for (int i = 0; i < scaled.length; ++i) {
+			scaled[i] *= factor;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Answer the sum of values from index from to index to (exclusive).
+	 */
+	public static double sum(double[] values, int from, int to) {
+		double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+		int i = from;
+
+		for (int end = to - ((to - from) & 3); i < end; i += 4) {
+			sum0 += values[i];
+			sum1 += values[i + 1];
+			sum2 += values[i + 2];
+			sum3 += values[i + 3];
+		}
+
+		for (; i < to; ++i) {
+			sum0 += values[i];
+		}
+
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	/**
+	 * Set typical[i] to the mean of highs[i], lows[i] and closes[i], the price
+	 * usually weighted by volume for daily data.
+	 */
+	public static void typicalPrices(double[] highs, double[] lows, double[] closes, double[] typical) {
+		checkLength(closes.length, highs.length);
+		checkLength(closes.length, lows.length);
+		checkLength(closes.length, typical.length);
+
+		for (int i = 0; i < typical.length; ++i) {
+			typical[i] = (highs[i] + lows[i] + closes[i]) / 3;
+		}
+	}
+
+	/**
+	 * Answer the volume-weighted average price from index from to index to
+	 * (exclusive), or NaN if there was no volume.
+	 */
+	public static double vwap(double[] prices, long[] volumes, int from, int to) {
+		double value0 = 0, value1 = 0;
+		double volume0 = 0, volume1 = 0;
+		int i = from;
+
+		for (int end = to - ((to - from) & 1); i < end; i += 2) {
+			double v0 = volumes[i];
+			double v1 = volumes[i + 1];
+
+			value0 += prices[i] * v0;
+			value1 += prices[i + 1] * v1;
+			volume0 += v0;
+			volume1 += v1;
+		}
+
+		for (; i < to; ++i) {
+			double v = volumes[i];
+
+			value0 += prices[i] * v;
+			volume0 += v;
+		}
+
+		double volume = volume0 + volume1;
+
+		return volume > 0 ? (value0 + value1) / volume : Double.NaN;
+	}
+
+	private Kernels() {
+		super();
+	}
+}
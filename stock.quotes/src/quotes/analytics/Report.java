@@ -0,0 +1,193 @@
+package quotes.analytics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import quotes.Date;
+import quotes.Main;
+import quotes.SeriesStore;
+
+/**
+ * Prints analytics over the stored history of the symbols watched by
+ * {@link Main}, or of those given:
+ *
+ * <pre>
+ * Report first last [symbol...]
+ * </pre>
+ *
+ * History is read from the series store in the folder named by quotes.series
+ * (by default ~/.quotes/series). Moving averages and volatility use the last
+ * quotes.analytics.window days (default 20), and the quotes.analytics.pairs
+ * (default 10) most and least correlated pairs of symbols are shown.
+ */
+public final class Report {
+
+	private static final class Pair {
+
+		final double correlation;
+
+		final int first;
+
+		final int second;
+
+		Pair(int first, int second, double correlation) {
+			super();
+			this.correlation = correlation;
+			this.first = first;
+			this.second = second;
+		}
+	}
+
+	private static final int Pairs = Integer.getInteger("quotes.analytics.pairs", 10).intValue();
+
+	/** the number of trading days in a year, used to annualize volatility */
+	private static final int TradingDays = 252;
+
+	private static final int Window = Integer.getInteger("quotes.analytics.window", 20).intValue();
+
+	/**
+	 * Answer the correlation of the daily log returns of each pair of symbols
+	 * with history, highest first.
+	 */
+	private static List<Pair> correlate(History history) {
+		int count = history.getSymbolCount();
+		int days = history.getDayCount();
+		double[][] scaled = new double[count][];
+
+		ForEach.run(0, count, symbol -> {
+			if (history.getRowCount(symbol) != 0) {
+				double[] returns = new double[days - 1];
+
+				Kernels.logReturns(history.getCloses(symbol), returns);
+
+				if (Kernels.standardize(returns, returns)) {
+					scaled[symbol] = returns;
+				}
+			}
+		});
+
+		double[][] matrix = new double[count][count];
+
+		// rows get shorter towards the end, but they are split finely enough
+		ForEach.run(0, count, row -> {
+			if (scaled[row] != null) {
+				for (int column = row + 1; column < count; ++column) {
+					if (scaled[column] != null) {
+						matrix[row][column] = Kernels.dot(scaled[row], scaled[column], 0, days - 1);
+					}
+				}
+			}
+		});
+
+		List<Pair> pairs = new ArrayList<>();
+
+		for (int row = 0; row < count; ++row) {
+			for (int column = row + 1; column < count; ++column) {
+				if (scaled[row] != null && scaled[column] != null) {
+					pairs.add(new Pair(row, column, matrix[row][column]));
+				}
+			}
+		}
+
+		pairs.sort(Comparator.comparingDouble((Pair pair) -> pair.correlation).reversed());
+
+		return pairs;
+	}
+
+	private static double last(double[] values) {
+		return values[values.length - 1];
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.out.println("Usage: Report first last [symbol...]");
+			return;
+		}
+
+		Date first = new Date(args[0]);
+		Date last = new Date(args[1]);
+		List<String> symbols = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : Main.getSymbols();
+		History history = History.load(new SeriesStore(SeriesStore.getDefaultFolder()), symbols, first, last);
+
+		System.out.format("History from %s to %s (%d days)\n", first, last, Integer.valueOf(history.getDayCount()));
+		System.out.println();
+
+		if (history.getDayCount() < 2) {
+			System.out.println("Not enough history.");
+			return;
+		}
+
+		printSummary(history);
+		System.out.println();
+
+		List<Pair> pairs = correlate(history);
+		int shown = Math.min(Pairs, pairs.size() / 2);
+
+		System.out.println("Most correlated");
+		printPairs(history, pairs.subList(0, shown));
+		System.out.println();
+		System.out.println("Least correlated");
+		printPairs(history, pairs.subList(pairs.size() - shown, pairs.size()));
+	}
+
+	private static void printPairs(History history, List<Pair> pairs) {
+		for (Pair pair : pairs) {
+			System.out.format("%-8s %-8s %6.3f\n", // <br/>
+					history.getSymbol(pair.first), history.getSymbol(pair.second),
+					Double.valueOf(pair.correlation));
+		}
+	}
+
+	private static void printSummary(History history) {
+		int count = history.getSymbolCount();
+		int days = history.getDayCount();
+		double[][] results = new double[count][];
+
+		ForEach.run(0, count, symbol -> {
+			if (history.getRowCount(symbol) == 0) {
+				return;
+			}
+
+			double[] closes = history.getCloses(symbol);
+			double[] averages = new double[days];
+			double[] returns = new double[days - 1];
+			double[] volatilities = new double[days - 1];
+			double[] typical = new double[days];
+
+			Kernels.movingAverage(closes, Math.min(Window, days), averages);
+			Kernels.logReturns(closes, returns);
+			Kernels.rollingVolatility(returns, Math.max(2, Math.min(Window, days - 1)), volatilities);
+			Kernels.typicalPrices(history.getHighs(symbol), history.getLows(symbol), closes, typical);
+
+			results[symbol] = new double[] { // <br/>
+					last(closes), // <br/>
+					last(closes) / closes[0] - 1, // <br/>
+					last(averages), // <br/>
+					last(volatilities) * Math.sqrt(TradingDays), // <br/>
+					Kernels.vwap(typical, history.getVolumes(symbol), 0, days) };
+		});
+
+		System.out.format("Symbol         Last    Return  MA(%d)  Volatility       VWAP\n", Integer.valueOf(Window));
+		System.out.println("------         ----    ------  ------  ----------       ----");
+
+		for (int symbol = 0; symbol < count; ++symbol) {
+			double[] result = results[symbol];
+
+			if (result == null) {
+				System.out.format("%-8s %10s\n", // <br/>
+						history.getSymbol(symbol), "-.--");
+			} else {
+				System.out.format("%-8s %,10.2f %+8.2f%% %,7.2f %10.1f%% %,10.2f\n", // <br/>
+						history.getSymbol(symbol), Double.valueOf(result[0]), Double.valueOf(result[1] * 100),
+						Double.valueOf(result[2]), Double.valueOf(result[3] * 100), Double.valueOf(result[4]));
+			}
+		}
+	}
+
+	private Report() {
+		super();
+	}
+}
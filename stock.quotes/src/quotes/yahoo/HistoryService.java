@@ -1,90 +1,151 @@
 package quotes.yahoo;
 
-import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import quotes.Date;
+import quotes.Exchanges;
+import quotes.HistoryParser;
 import quotes.Quote;
+import quotes.QuoteCache;
+import quotes.TradingCalendar;
 
 public final class HistoryService {
 
-	private static final String Hostname = "ichart.finance.yahoo.com";
+	/**
+	 * Quotes already seen; the file may be set to an empty string to keep
+	 * them in memory only.
+	 */
+	private static final QuoteCache Cache = QuoteCache.open( // <br/>
+			cacheFile(), // <br/>
+			Integer.getInteger("quotes.cache.size", 4096).intValue(), // <br/>
+			Long.getLong("quotes.cache.missHours", 12).longValue() * 60 * 60 * 1000);
+
+	/**
+	 * The host (and optional port) to ask for quotes; it may be set to a
+	 * local stand-in server for testing.
+	 */
+	private static final String Hostname = System.getProperty("quotes.yahoo.host", "ichart.finance.yahoo.com");
+
+	/**
+	 * Sends requests to the host, as configured by quotes.yahoo.* properties.
+	 */
+	private static final Requester Requests = new Requester("quotes.yahoo");
 
 	private static final String UTF_8 = "UTF-8";
 
-	public static Quote getQuote(String symbol, Date date) {
-		try {
-			return getQuote0(symbol, date);
-		} catch (IOException e) {
-			return null;
+	private static Path cacheFile() {
+		String file = System.getProperty("quotes.cache");
+
+		if (file == null) {
+			return Paths.get(System.getProperty("user.home"), ".quotes", "cache");
 		}
+
+		return file.isEmpty() ? null : Paths.get(file);
 	}
 
-	private static Quote getQuote0(String symbol, Date date) throws IOException {
-		URL url = makeQuoteURL(symbol, date);
-		InputStream in = url.openStream();
-		InputStreamReader rd = new InputStreamReader(in, UTF_8);
-		BufferedReader br = new BufferedReader(rd);
-		Pattern pattern = quotePattern(date);
+	private static Quote fetchQuote(String symbol, Date date) throws IOException {
+		return fetchQuotes(symbol, date, date).get(date);
+	}
+
+	private static SortedMap<Date, Quote> fetchQuotes(String symbol, Date first, Date last) throws IOException {
+		int firstValue = first.value();
+		int lastValue = last.value();
 
 		try {
-			for (;;) {
-				String line = br.readLine();
+			return Requests.fetch(makeQuoteURL(symbol, first, last), in -> {
+				SortedMap<Date, Quote> quotes = new TreeMap<>();
+
+				new HistoryParser((date, open, high, low, close, volume, adjustedClose) -> {
+					if (firstValue <= date && date <= lastValue) {
+						quotes.put(Date.fromValue(date), new Quote(close, volume));
+					}
+				}).parse(in);
+
+				return quotes;
+			});
+		} catch (FileNotFoundException e) {
+			// the symbol is unknown
+			return new TreeMap<>();
+		}
+	}
 
-				if (line == null) {
-					break;
-				}
+	/**
+	 * Answer the quote for a symbol on a date, or null if there is none.
+	 */
+	public static Quote findQuote(String symbol, Date date) throws IOException {
+		// no requests are sent for days on which there can be no quotes
+		if (!Exchanges.calendarOf(symbol).isTradingDay(date.value())) {
+			return null;
+		}
 
-				Matcher matcher = pattern.matcher(line);
+		return Cache.get(symbol, date, HistoryService::fetchQuote);
+	}
 
-				if (matcher.matches()) {
-					double close = Double.parseDouble(matcher.group(1));
-					long volume = Long.parseLong(matcher.group(2));
+	public static Quote getQuote(String symbol, Date date) {
+		try {
+			return findQuote(symbol, date);
+		} catch (IOException e) {
+			return null;
+		}
+	}
 
-					return new Quote(close, volume);
-				}
+	/**
+	 * Fetch the quotes for a symbol from first to last, inclusive, with a
+	 * single request. All of them, and the days without a quote, are cached
+	 * so later requests for any day in the range need not be sent.
+	 */
+	public static SortedMap<Date, Quote> getQuotes(String symbol, Date first, Date last) throws IOException {
+		SortedMap<Date, Quote> quotes = fetchQuotes(symbol, first, last);
+		TradingCalendar calendar = Exchanges.calendarOf(symbol);
+
+		for (Date date : Date.range(first, last)) {
+			if (calendar.isTradingDay(date.value())) {
+				Cache.put(symbol, date, quotes.get(date));
 			}
-		} finally {
-			br.close();
 		}
 
-		return null;
+		return quotes;
 	}
 
-	private static URL makeQuoteURL(String symbol, Date date) throws IOException {
+	/**
+	 * Answer a summary of the requests sent so far.
+	 */
+	public static String getStatistics() {
+		return Requests.getStatistics();
+	}
+
+	/**
+	 * Answer whether findQuote can answer without sending a request.
+	 */
+	public static boolean isCached(String symbol, Date date) {
+		return !Exchanges.calendarOf(symbol).isTradingDay(date.value()) || Cache.contains(symbol, date);
+	}
+
+	private static URL makeQuoteURL(String symbol, Date first, Date last) throws IOException {
 		StringBuilder url = new StringBuilder();
 
 		url.append("/table.csv");
 		url.append("?s=").append(URLEncoder.encode(symbol, UTF_8));
 
-		url.append("&a=").append(date.month());
-		url.append("&b=").append(date.day());
-		url.append("&c=").append(date.year());
+		url.append("&a=").append(first.month());
+		url.append("&b=").append(first.day());
+		url.append("&c=").append(first.year());
 
-		url.append("&d=").append(date.month());
-		url.append("&e=").append(date.day());
-		url.append("&f=").append(date.year());
+		url.append("&d=").append(last.month());
+		url.append("&e=").append(last.day());
+		url.append("&f=").append(last.year());
 
 		url.append("&g=d");
 		url.append("&ignore=.csv");
 
-		return new URL("http", Hostname, url.toString());
-	}
-
-	private static Pattern quotePattern(Date date) {
-		String pattern = "^%04d.%02d.%02d,[^,]+,[^,]+,[^,]+,(\\d+\\.\\d+),(\\d+),[^,]+$";
-		String regex = String.format(pattern, // <br/>
-				Integer.valueOf(date.year()), // <br/>
-				Integer.valueOf(date.month() + 1), // <br/>
-				Integer.valueOf(date.day()));
-
-		return Pattern.compile(regex);
+		return new URL("http://" + Hostname + url);
 	}
 
 	private HistoryService() {
@@ -0,0 +1,85 @@
+package quotes.yahoo;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket: tokens are added at a steady rate, up to a limit, and each
+ * request takes one, waiting for it if necessary. Requests may come in a
+ * burst of up to the limit, but over time no faster than the rate. Waiting
+ * requests are served in the order they came.
+ */
+final class RateLimiter {
+
+	private final double limit;
+
+	/** tokens added per nanosecond */
+	private final double rate;
+
+	/** negative when owed to requests waiting */
+	private double tokens;
+
+	private long updated;
+
+	/**
+	 * Create a bucket, initially full, that gains perSecond tokens each
+	 * second up to limit.
+	 */
+	RateLimiter(double perSecond, double limit) {
+		super();
+		this.limit = Math.max(1, limit);
+		this.rate = perSecond / TimeUnit.SECONDS.toNanos(1);
+		this.tokens = this.limit;
+		this.updated = System.nanoTime();
+	}
+
+	/**
+	 * Take a token, waiting until there is one; answer whether it was
+	 * necessary to wait.
+	 */
+	boolean acquire() throws InterruptedIOException {
+		long nanos;
+
+		synchronized (this) {
+			refill();
+			tokens -= 1;
+
+			if (tokens >= 0) {
+				return false;
+			}
+
+			// the token is taken now, but must be waited for
+			nanos = (long) Math.ceil(-tokens / rate);
+		}
+
+		try {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting to send a request");
+		}
+
+		return true;
+	}
+
+	private void refill() {
+		long now = System.nanoTime();
+
+		tokens = Math.min(limit, tokens + (now - updated) * rate);
+		updated = now;
+	}
+
+	/**
+	 * Take a token if there is one, without waiting; answer whether there
+	 * was.
+	 */
+	synchronized boolean tryAcquire() {
+		refill();
+
+		if (tokens >= 1) {
+			tokens -= 1;
+			return true;
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,503 @@
+package quotes.yahoo;
+
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sends requests to one host, limiting how many are in progress at once and
+ * guarding against slow or failed responses:
+ *
+ * <ul>
+ * <li>requests are sent no faster than a given rate, though short bursts
+ * are allowed;</li>
+ * <li>connections and reads time out;</li>
+ * <li>if a response hasn't arrived by the time that 95% of recent responses
+ * had, the request is sent again (on one of a few connections set aside for
+ * the purpose) and the first response is used;</li>
+ * <li>failed requests are retried a few times, after a random delay that
+ * grows with each attempt.</li>
+ * </ul>
+ *
+ * Responses may be compressed with gzip, and are decoded as they are read.
+ * Each response is read to the end so that its connection may be kept open
+ * and used for a later request. The JDK keeps at most http.maxConnections
+ * (by default 5) idle connections to a host; that is a setting for the whole
+ * JVM, so it is left to the launcher, which may raise it to maxConnections
+ * plus maxHedges.
+ *
+ * Settings are read from system properties with the given prefix: rate
+ * (requests per second, or 0 for no limit), burst, maxConnections, maxHedges,
+ * connectTimeout, readTimeout, hedge, hedgeDelay (used until enough responses
+ * have been seen), retries and backoff; times are in milliseconds.
+ */
+final class Requester {
+
+	interface Body<T> {
+
+		/**
+		 * Read a response; this may be called more than once for the same
+		 * request, possibly at the same time.
+		 */
+		T read(InputStream in) throws IOException;
+
+	}
+
+	/**
+	 * Counts the bytes read through it, adding them to a total when closed.
+	 */
+	private static final class CountingStream extends FilterInputStream {
+
+		private long count;
+
+		private final AtomicLong total;
+
+		CountingStream(InputStream in, AtomicLong total) {
+			super(in);
+			this.count = 0;
+			this.total = total;
+		}
+
+		@Override
+		public void close() throws IOException {
+			total.addAndGet(count);
+			count = 0;
+			super.close();
+		}
+
+		@Override
+		public int read() throws IOException {
+			int ch = super.read();
+
+			if (ch >= 0) {
+				count += 1;
+			}
+
+			return ch;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int n = super.read(buffer, offset, length);
+
+			if (n > 0) {
+				count += n;
+			}
+
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+
+			count += skipped;
+
+			return skipped;
+		}
+	}
+
+	/**
+	 * A permit acquired for one request. Whichever claims it first, the
+	 * request as it starts or the caller as it gives up on the request,
+	 * releases it; so a request cancelled before it starts doesn't keep it.
+	 */
+	private static final class Permit {
+
+		private final AtomicBoolean claimed;
+
+		private final Semaphore semaphore;
+
+		Permit(Semaphore semaphore) {
+			super();
+			this.claimed = new AtomicBoolean();
+			this.semaphore = semaphore;
+		}
+
+		boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+
+		void release() {
+			semaphore.release();
+		}
+	}
+
+	/** the most bytes read from a response no longer needed to keep its connection */
+	private static final int MAX_DRAIN = 64 * 1024;
+
+	/** the number of response times needed before hedging uses them */
+	private static final int MIN_SAMPLES = 20;
+
+	/** the number of recent response times kept */
+	private static final int SAMPLES = 256;
+
+	/**
+	 * Read what's left of a response, so that its connection may be used
+	 * again, and close it; in may be null.
+	 */
+	private static void drain(InputStream in) {
+		if (in == null) {
+			return;
+		}
+
+		try (InputStream body = in) {
+			byte[] buffer = new byte[4096];
+
+			for (int total = 0; total < MAX_DRAIN;) {
+				int count = body.read(buffer);
+
+				if (count < 0) {
+					break;
+				}
+
+				total += count;
+			}
+		} catch (IOException e) {
+			// the connection won't be reused
+		}
+	}
+
+	private static int getInteger(String prefix, String name, int defaultValue) {
+		return Integer.getInteger(prefix + '.' + name, defaultValue).intValue();
+	}
+
+	private static RateLimiter makeLimiter(String prefix) {
+		double rate = Double.parseDouble(System.getProperty(prefix + ".rate", "0"));
+
+		if (!(rate > 0)) {
+			return null;
+		}
+
+		String burst = System.getProperty(prefix + ".burst");
+
+		return new RateLimiter(rate, burst != null ? Double.parseDouble(burst) : rate);
+	}
+
+	/**
+	 * Answer the body of the response to connection, reading and closing the
+	 * body of an error response before reporting it.
+	 */
+	private static InputStream openStream(URLConnection connection) throws IOException {
+		try {
+			return connection.getInputStream();
+		} catch (IOException e) {
+			if (connection instanceof HttpURLConnection) {
+				drain(((HttpURLConnection) connection).getErrorStream());
+			}
+
+			throw e;
+		}
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting to retry");
+		}
+	}
+
+	private static IOException toIOException(Throwable cause) {
+		if (cause instanceof IOException) {
+			return (IOException) cause;
+		}
+
+		if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		}
+
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+
+		return new IOException(cause);
+	}
+
+	private final int backoff;
+
+	private final AtomicLong bytesDecoded;
+
+	private final AtomicLong bytesReceived;
+
+	private final int connectTimeout;
+
+	private final ExecutorService executor;
+
+	private final AtomicLong failed;
+
+	private final boolean hedge;
+
+	private final int hedgeDelay;
+
+	private final AtomicLong hedged;
+
+	private final Semaphore hedgePermits;
+
+	private final AtomicLong hedgesWon;
+
+	private final Semaphore permits;
+
+	private final int readTimeout;
+
+	/** limits the rate of requests, or null */
+	private final RateLimiter limiter;
+
+	private final AtomicLong requests;
+
+	private final AtomicLong retried;
+
+	private final int retries;
+
+	private int sampleCount;
+
+	private final long[] samples;
+
+	private final AtomicLong throttled;
+
+	Requester(String prefix) {
+		super();
+		this.backoff = getInteger(prefix, "backoff", 250);
+		this.bytesDecoded = new AtomicLong();
+		this.bytesReceived = new AtomicLong();
+		this.connectTimeout = getInteger(prefix, "connectTimeout", 5000);
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "Requester");
+
+			thread.setDaemon(true);
+
+			return thread;
+		});
+		this.failed = new AtomicLong();
+		this.hedge = Boolean.parseBoolean(System.getProperty(prefix + ".hedge", "true"));
+		this.hedgeDelay = getInteger(prefix, "hedgeDelay", 1000);
+		this.hedged = new AtomicLong();
+		this.hedgePermits = new Semaphore(Math.max(0, getInteger(prefix, "maxHedges", 2)));
+		this.hedgesWon = new AtomicLong();
+		this.permits = new Semaphore(Math.max(1, getInteger(prefix, "maxConnections", 4)));
+		this.limiter = makeLimiter(prefix);
+		this.readTimeout = getInteger(prefix, "readTimeout", 15000);
+		this.requests = new AtomicLong();
+		this.retried = new AtomicLong();
+		this.retries = Math.max(0, getInteger(prefix, "retries", 2));
+		this.sampleCount = 0;
+		this.samples = new long[SAMPLES];
+		this.throttled = new AtomicLong();
+	}
+
+	/**
+	 * Request the resource at url and answer what body reads from it. A
+	 * missing resource is reported by FileNotFoundException, without retries.
+	 */
+	<T> T fetch(URL url, Body<T> body) throws IOException {
+		for (int attempt = 0;; ++attempt) {
+			try {
+				return fetchHedged(url, body);
+			} catch (FileNotFoundException e) {
+				throw e;
+			} catch (IOException e) {
+				// a timeout is worth retrying, but an interruption is not
+				boolean interrupted = Thread.currentThread().isInterrupted()
+						|| (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException));
+
+				if (interrupted || attempt >= retries) {
+					failed.incrementAndGet();
+					throw e;
+				}
+
+				retried.incrementAndGet();
+				sleep(ThreadLocalRandom.current().nextLong((long) backoff << attempt) + 1);
+			}
+		}
+	}
+
+	private <T> T fetchHedged(URL url, Body<T> body) throws IOException {
+		CompletionService<T> attempts = new ExecutorCompletionService<>(executor);
+		List<Permit> held = new ArrayList<>(2);
+		List<Future<T>> started = new ArrayList<>(2);
+
+		// time spent waiting to send doesn't count towards hedging
+		if (limiter != null && limiter.acquire()) {
+			throttled.incrementAndGet();
+		}
+
+		Permit first = new Permit(permits);
+
+		permits.acquireUninterruptibly();
+		started.add(submit(attempts, url, body, first));
+		held.add(first);
+
+		try {
+			Future<T> done = hedge ? attempts.poll(getHedgeDelay(), TimeUnit.MILLISECONDS) : attempts.take();
+
+			if (done == null) {
+				if (hedgePermits.tryAcquire()) {
+					Permit second = new Permit(hedgePermits);
+
+					if (limiter != null && !limiter.tryAcquire()) {
+						// don't wait to hedge
+						second.release();
+					} else {
+						hedged.incrementAndGet();
+						started.add(submit(attempts, url, body, second));
+						held.add(second);
+					}
+				}
+
+				done = attempts.take();
+			}
+
+			for (int pending = started.size();; done = attempts.take()) {
+				try {
+					T result = done.get();
+
+					if (started.size() > 1 && done == started.get(1)) {
+						hedgesWon.incrementAndGet();
+					}
+
+					return result;
+				} catch (ExecutionException e) {
+					pending -= 1;
+
+					if (pending == 0 || e.getCause() instanceof FileNotFoundException) {
+						throw toIOException(e.getCause());
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while fetching " + url);
+		} finally {
+			for (int i = 0; i < started.size(); ++i) {
+				Permit permit = held.get(i);
+
+				started.get(i).cancel(true);
+
+				if (permit.claim()) {
+					// the request never started
+					permit.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Make a single request, using a permit already acquired and claimed.
+	 */
+	private <T> T fetchOnce(URL url, Body<T> body, Permit permit) throws IOException {
+		try {
+			long start = System.nanoTime();
+			URLConnection connection = url.openConnection();
+
+			requests.incrementAndGet();
+			connection.setConnectTimeout(connectTimeout);
+			connection.setReadTimeout(readTimeout);
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+
+			// the connection's stream is closed even if the gzip header is bad
+			try (CountingStream received = new CountingStream(openStream(connection), bytesReceived);
+					CountingStream decoded = new CountingStream(
+							"gzip".equalsIgnoreCase(connection.getContentEncoding()) // <br/>
+									? new GZIPInputStream(received, 8192)
+									: received,
+							bytesDecoded)) {
+				T result = body.read(decoded);
+
+				record(System.nanoTime() - start);
+
+				if (decoded.read() >= 0) {
+					drain(decoded);
+				}
+
+				return result;
+			}
+		} finally {
+			permit.release();
+		}
+	}
+
+	/**
+	 * Answer how long to wait for a response before sending the request
+	 * again.
+	 */
+	private long getHedgeDelay() {
+		long p95 = getPercentile(95);
+
+		return p95 < 0 ? hedgeDelay : Math.max(1, p95);
+	}
+
+	/**
+	 * Answer the given percentile of recent response times in milliseconds,
+	 * or -1 if too few responses have been seen.
+	 */
+	private long getPercentile(int percent) {
+		long[] sorted;
+
+		synchronized (samples) {
+			if (sampleCount < MIN_SAMPLES) {
+				return -1;
+			}
+
+			sorted = Arrays.copyOf(samples, Math.min(sampleCount, SAMPLES));
+		}
+
+		Arrays.sort(sorted);
+
+		return TimeUnit.NANOSECONDS.toMillis(sorted[(sorted.length - 1) * percent / 100]);
+	}
+
+	String getStatistics() {
+		return String.format("%d requests, %d throttled, %d hedged (%d won), %d retried, %d failed; " // <br/>
+				+ "p50 %d ms, p95 %d ms; %d KB received, %d KB decoded", // <br/>
+				Long.valueOf(requests.get()), Long.valueOf(throttled.get()), // <br/>
+				Long.valueOf(hedged.get()), Long.valueOf(hedgesWon.get()), // <br/>
+				Long.valueOf(retried.get()), Long.valueOf(failed.get()), // <br/>
+				Long.valueOf(getPercentile(50)), Long.valueOf(getPercentile(95)), // <br/>
+				Long.valueOf(bytesReceived.get() / 1024), Long.valueOf(bytesDecoded.get() / 1024));
+	}
+
+	private void record(long nanos) {
+		synchronized (samples) {
+			samples[sampleCount++ % SAMPLES] = nanos;
+
+			if (sampleCount == 2 * SAMPLES) {
+				// keep the count small but past the ring
+				sampleCount = SAMPLES;
+			}
+		}
+	}
+
+	/**
+	 * Submit a single request using a permit already acquired, releasing it
+	 * if the request cannot be submitted.
+	 */
+	private <T> Future<T> submit(CompletionService<T> attempts, URL url, Body<T> body, Permit permit) {
+		try {
+			return attempts.submit(() -> permit.claim() ? fetchOnce(url, body, permit) : null);
+		} catch (RejectedExecutionException e) {
+			permit.release();
+			throw e;
+		}
+	}
+}
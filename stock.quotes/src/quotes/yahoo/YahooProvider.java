@@ -0,0 +1,27 @@
+package quotes.yahoo;
+
+import java.io.IOException;
+
+import quotes.Date;
+import quotes.Quote;
+import quotes.QuoteProvider;
+
+/**
+ * Provides quotes from {@link HistoryService}.
+ */
+public final class YahooProvider implements QuoteProvider {
+
+	public YahooProvider() {
+		super();
+	}
+
+	@Override
+	public Quote getQuote(String symbol, Date date) throws IOException {
+		return HistoryService.findQuote(symbol, date);
+	}
+
+	@Override
+	public boolean isLocal(String symbol, Date date) {
+		return HistoryService.isCached(symbol, date);
+	}
+}